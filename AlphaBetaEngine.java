@@ -0,0 +1,352 @@
+package ai;
+
+import model.BoardState;
+import model.Move;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Negamax alpha-beta search with iterative deepening over the primitive game state
+ * Each search is limited by a node budget and a time budget, whichever runs out first
+ */
+public class AlphaBetaEngine implements SearchEngine {
+
+    /** Score of a won position, reduced by the number of plies needed to reach the win */
+    public static final int WIN = 1_000_000;
+
+    /** Deepest iteration attempted */
+    public static final int MAX_DEPTH = 64;
+
+    /** Value of a line showing 0-4 pieces of one player and none of the other */
+    private static final int[] LINE_WEIGHTS = {0, 1, 8, 64, 512};
+
+    /** Nodes visited between checks of the time budget */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** Maximum number of nodes per search, 0 for no limit */
+    private final long maxNodes;
+
+    /** Maximum time per search in milliseconds, 0 for no limit */
+    private final long timeMillis;
+
+    /** Table of earlier search results, may be null */
+    private final TranspositionTable table;
+
+    /** Move lists of each ply, reused across searches */
+    private final int[][] moves = new int[MAX_DEPTH + 1][Move.MAX_MOVES];
+
+    /** Ordering scores matching the move lists */
+    private final int[][] scores = new int[MAX_DEPTH + 1][Move.MAX_MOVES];
+
+    /** Position being searched, moves are applied and undone in place */
+    private BoardState state;
+
+    private long nodes;
+
+    private long deadline;
+
+    private boolean aborted;
+
+    /** Flag set by another thread to end the search early, may be null */
+    private AtomicBoolean stop;
+
+    /**
+     * Creates a new engine
+     * @param maxNodes maximum number of nodes per search, 0 for no limit
+     * @param timeMillis maximum time per search in milliseconds, 0 for no limit
+     */
+    public AlphaBetaEngine(long maxNodes, long timeMillis){
+        this(maxNodes, timeMillis, null);
+    }
+
+    /**
+     * Creates a new engine that caches its results in a transposition table
+     * @param maxNodes maximum number of nodes per search, 0 for no limit
+     * @param timeMillis maximum time per search in milliseconds, 0 for no limit
+     * @param table transposition table, may be shared with other engines, or null for none
+     */
+    public AlphaBetaEngine(long maxNodes, long timeMillis, TranspositionTable table){
+        this.maxNodes = maxNodes;
+        this.timeMillis = timeMillis;
+        this.table = table;
+    }
+
+    @Override
+    public SearchResult search(BoardState state, int player){
+        if(this.table != null){
+            this.table.newSearch();
+        }
+        return search(state, player, 1, MAX_DEPTH, null);
+    }
+
+    /**
+     * Searches with iterative deepening over a range of depths
+     * @param state position to search, left unchanged
+     * @param player index of the player to move
+     * @param firstDepth depth of the first iteration
+     * @param lastDepth depth of the last iteration
+     * @param stop flag that ends the search when set by another thread, may be null
+     * @return the best move of the deepest completed iteration
+     */
+    SearchResult search(BoardState state, int player, int firstDepth, int lastDepth, AtomicBoolean stop){
+        long start = System.nanoTime();
+        this.state = state.copy();
+        this.nodes = 0;
+        this.deadline = start + this.timeMillis * 1_000_000L;
+        this.aborted = false;
+        this.stop = stop;
+
+        int[] rootMoves = this.moves[0];
+        int count = this.state.generateMoves(player, rootMoves);
+        if(count == 0){
+            return new SearchResult(Move.NONE, 0, 0, 0, System.nanoTime() - start);
+        }
+        scoreMoves(player, 0, count, Move.NONE);
+        for(int i = 0; i < count; i++){
+            pickNext(0, i, count);
+        }
+
+        int bestMove = rootMoves[0];
+        int bestScore = 0;
+        int completedDepth = 0;
+        for(int depth = firstDepth; depth <= lastDepth; depth++){
+            int alpha = -WIN - 1;
+            int iterationBest = 0;
+            for(int i = 0; i < count; i++){
+                int score = scoreMove(player, rootMoves[i], depth, 0, alpha, WIN + 1);
+                if(this.aborted){
+                    break;
+                }
+                if(score > alpha){
+                    alpha = score;
+                    iterationBest = i;
+                }
+            }
+            if(this.aborted){
+                break;
+            }
+
+            // searches the best move of this iteration first in the next one
+            int best = rootMoves[iterationBest];
+            System.arraycopy(rootMoves, 0, rootMoves, 1, iterationBest);
+            rootMoves[0] = best;
+
+            bestMove = best;
+            bestScore = alpha;
+            completedDepth = depth;
+            if(Math.abs(alpha) >= WIN - MAX_DEPTH){
+                break;
+            }
+        }
+        return new SearchResult(bestMove, bestScore, completedDepth, this.nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Plays a move, scores the resulting position and takes the move back
+     * @return score of the move from the point of view of the player making it
+     */
+    private int scoreMove(int player, int move, int depth, int ply, int alpha, int beta){
+        this.state.apply(player, move);
+        int score;
+        // the opponent's win takes priority, as in GobbletsModel.checkWinners
+        if(this.state.isWinner(1 - player)){
+            score = -(WIN - ply - 1);
+        }
+        else if(this.state.isWinner(player)){
+            score = WIN - ply - 1;
+        }
+        else{
+            score = -negamax(1 - player, depth - 1, ply + 1, -beta, -alpha);
+        }
+        this.state.undo(player, move);
+        return score;
+    }
+
+    /** Searches the current position to the given depth */
+    private int negamax(int player, int depth, int ply, int alpha, int beta){
+        if(++this.nodes % CHECK_INTERVAL == 0){
+            checkBudget();
+        }
+        if(this.aborted){
+            return 0;
+        }
+        if(depth == 0){
+            return evaluate(this.state, player);
+        }
+
+        long hash = 0;
+        int tableMove = Move.NONE;
+        if(this.table != null){
+            hash = this.state.hash(player);
+            long entry = this.table.probe(hash);
+            if(entry != 0){
+                tableMove = TranspositionTable.move(entry);
+                if(TranspositionTable.depth(entry) >= depth){
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if(bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && score >= beta)
+                            || (bound == TranspositionTable.UPPER && score <= alpha)){
+                        return score;
+                    }
+                }
+            }
+        }
+
+        int count = this.state.generateMoves(player, this.moves[ply]);
+        if(count == 0){
+            return 0;
+        }
+        scoreMoves(player, ply, count, tableMove);
+
+        int originalAlpha = alpha;
+        int best = -WIN - 1;
+        int bestMove = Move.NONE;
+        for(int i = 0; i < count; i++){
+            int move = pickNext(ply, i, count);
+            int score = scoreMove(player, move, depth, ply, alpha, beta);
+            if(this.aborted){
+                return 0;
+            }
+            if(score > best){
+                best = score;
+                bestMove = move;
+                if(score > alpha){
+                    alpha = score;
+                    if(alpha >= beta){
+                        break;
+                    }
+                }
+            }
+        }
+
+        if(this.table != null){
+            int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            this.table.store(hash, bestMove, toTable(best, ply), depth, bound);
+        }
+        return best;
+    }
+
+    /** Converts a win score from distance-to-root to distance-to-node before it is stored */
+    private static int toTable(int score, int ply){
+        if(score >= WIN - MAX_DEPTH - 1){
+            return score + ply;
+        }
+        if(score <= -(WIN - MAX_DEPTH - 1)){
+            return score - ply;
+        }
+        return score;
+    }
+
+    /** Converts a stored win score back to distance-to-root */
+    private static int fromTable(int score, int ply){
+        if(score >= WIN - MAX_DEPTH - 1){
+            return score - ply;
+        }
+        if(score <= -(WIN - MAX_DEPTH - 1)){
+            return score + ply;
+        }
+        return score;
+    }
+
+    private void checkBudget(){
+        if((this.maxNodes > 0 && this.nodes >= this.maxNodes)
+                || (this.timeMillis > 0 && System.nanoTime() >= this.deadline)
+                || (this.stop != null && this.stop.get())){
+            this.aborted = true;
+        }
+    }
+
+    /**
+     * Gives each move an ordering score: gobbling an opponent piece first, then blocking an opponent line of
+     * three, then building a line of our own; lifting a piece off an opponent piece is searched last.
+     * A move remembered by the transposition table goes before all of them.
+     */
+    private void scoreMoves(int player, int ply, int count, int tableMove){
+        int theirs = this.state.visible(1 - player);
+        int threats = 0;
+        int builds = 0;
+        for(int line = 0; line < BoardState.LINES.length; line++){
+            if(this.state.lineCount(1 - player, line) >= 3){
+                threats |= BoardState.LINES[line];
+            }
+            if(this.state.lineCount(player, line) >= 2 && this.state.lineCount(1 - player, line) == 0){
+                builds |= BoardState.LINES[line];
+            }
+        }
+
+        int[] moves = this.moves[ply];
+        int[] scores = this.scores[ply];
+        for(int i = 0; i < count; i++){
+            int move = moves[i];
+            int to = 1 << Move.to(move);
+            int score = move == tableMove ? 100_000 : 0;
+            if((theirs & to) != 0){
+                score += 1000;
+            }
+            if((threats & to) != 0){
+                score += 500;
+            }
+            if((builds & to) != 0){
+                score += 100;
+            }
+            if(!Move.isStackMove(move) && uncoversOpponent(player, Move.from(move))){
+                score -= 200;
+            }
+            scores[i] = score;
+        }
+    }
+
+    /** Determines if lifting the top piece of a cell would reveal an opponent piece */
+    private boolean uncoversOpponent(int player, int cell){
+        for(int size = this.state.topSize(cell) + 1; size <= BoardState.SIZES; size++){
+            int owner = this.state.ownerAt(cell, size);
+            if(owner >= 0){
+                return owner != player;
+            }
+        }
+        return false;
+    }
+
+    /** Moves the best scored remaining move of a ply to position i and returns it */
+    private int pickNext(int ply, int i, int count){
+        int[] moves = this.moves[ply];
+        int[] scores = this.scores[ply];
+        int best = i;
+        for(int j = i + 1; j < count; j++){
+            if(scores[j] > scores[best]){
+                best = j;
+            }
+        }
+        int move = moves[best];
+        moves[best] = moves[i];
+        moves[i] = move;
+        int score = scores[best];
+        scores[best] = scores[i];
+        scores[i] = score;
+        return move;
+    }
+
+    /**
+     * Static evaluation: every line still open to only one player counts for that player, rising steeply with
+     * the number of pieces showing in it
+     * @param state position to evaluate
+     * @param player player from whose point of view the score is given
+     * @return score, positive if the position favours the player
+     */
+    public static int evaluate(BoardState state, int player){
+        int score = 0;
+        for(int line = 0; line < BoardState.LINES.length; line++){
+            int m = state.lineCount(player, line);
+            int t = state.lineCount(1 - player, line);
+            if(t == 0){
+                score += LINE_WEIGHTS[m];
+            }
+            if(m == 0){
+                score -= LINE_WEIGHTS[t];
+            }
+        }
+        return score;
+    }
+}
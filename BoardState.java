@@ -0,0 +1,547 @@
+package model;
+
+/**
+ * Compact primitive core of a Gobblets position
+ * Each player has one 16 bit occupancy mask per piece size, packed four to a long, and the piece counts of
+ * their three external stacks are packed three bits apiece into a single int.
+ * Cells are numbered row * 4 + col. A piece with a smaller size number gobbles a piece with a larger one,
+ * so the top of a cell is always its smallest occupied size and the top of an external stack holding
+ * n pieces has size 5 - n.
+ * The cells each player shows and the number of them in every line are kept up to date as pieces are placed
+ * and lifted, so win checks and the three-in-a-line rule are constant-time.
+ */
+public final class BoardState {
+
+    public static final int CELLS = 16;
+
+    public static final int SIZES = 4;
+
+    public static final int STACKS = 3;
+
+    public static final int STACK_HEIGHT = 4;
+
+    /** Masks of the 10 lines of the board: 4 rows, 4 columns and both diagonals */
+    public static final int[] LINES = {
+            0x000F, 0x00F0, 0x0F00, 0xF000,
+            0x1111, 0x2222, 0x4444, 0x8888,
+            0x8421, 0x1248
+    };
+
+    /** For each cell, a bit set (over LINES) of the lines that run through it */
+    static final int[] CELL_LINES = new int[CELLS];
+
+    /** For each cell, one added to the three bit line counter of every line that runs through it */
+    private static final int[] CELL_COUNTS = new int[CELLS];
+
+    /** For each cell, the low bit of the counters checked for a gobble from the external stacks there */
+    private static final int[] GOBBLE_COUNTS = new int[CELLS];
+
+    /** Cells of both diagonals */
+    private static final int DIAGONAL_CELLS = 0x8421 | 0x1248;
+
+    /** The lowest bit of every line counter */
+    private static final int COUNTER_ONES = 0x09249249;
+
+    /** The lowest bit of the counters of the rows and columns */
+    private static final int ORTHOGONAL_ONES = 0x00249249;
+
+    /** The lowest bit of the counters of both diagonals */
+    private static final int DIAGONAL_ONES = 0x09000000;
+
+    static {
+        for(int cell = 0; cell < CELLS; cell++){
+            for(int line = 0; line < LINES.length; line++){
+                if((LINES[line] & (1 << cell)) != 0){
+                    CELL_LINES[cell] |= 1 << line;
+                    CELL_COUNTS[cell] |= 1 << (3 * line);
+                }
+            }
+            // a cell on either diagonal checks both of them, as the original model did
+            GOBBLE_COUNTS[cell] = (DIAGONAL_CELLS & (1 << cell)) != 0
+                    ? (CELL_COUNTS[cell] & ORTHOGONAL_ONES) | DIAGONAL_ONES : CELL_COUNTS[cell];
+        }
+    }
+
+    /** Occupancy masks of player 0, size s in bits [16 * (s - 1), 16 * s) */
+    private long masks0;
+
+    /** Occupancy masks of player 1, same layout as masks0 */
+    private long masks1;
+
+    /** External stack counts, three bits per stack, player 0 stacks first */
+    private int reserves;
+
+    /** Cells whose top piece belongs to player 0 */
+    private int visible0;
+
+    /** Cells whose top piece belongs to player 1 */
+    private int visible1;
+
+    /** Number of top pieces player 0 shows in each line, three bits per line in the order of LINES */
+    private int lineCounts0;
+
+    /** Number of top pieces player 1 shows in each line, same layout as lineCounts0 */
+    private int lineCounts1;
+
+    /** Zobrist hash of the board under each of the 8 symmetries, index 0 being the board as it stands */
+    private final long[] boardHashes = new long[Symmetry.COUNT];
+
+    /** Zobrist hash of the external stack counts */
+    private long reserveHash;
+
+    /**
+     * Creates the starting position: an empty board and three full external stacks per player
+     */
+    public BoardState(){
+        for(int player = 0; player < 2; player++){
+            for(int stack = 0; stack < STACKS; stack++){
+                this.reserves |= STACK_HEIGHT << (3 * (player * STACKS + stack));
+                this.reserveHash ^= Zobrist.RESERVES[player][stack][STACK_HEIGHT];
+            }
+        }
+    }
+
+    /**
+     * Creates a state from packed occupancy masks and stack counts, as returned by masks and reserves
+     * @param masks0 occupancy masks of player 0
+     * @param masks1 occupancy masks of player 1, no cell may hold two pieces of one size
+     * @param reserves packed external stack counts
+     * @return the new state
+     */
+    public static BoardState of(long masks0, long masks1, int reserves){
+        BoardState state = new BoardState();
+        for(int player = 0; player < 2; player++){
+            for(int stack = 0; stack < STACKS; stack++){
+                for(int count = state.reserveCount(player, stack); count > ((reserves >>> (3 * (player * STACKS
+                        + stack))) & 7); count--){
+                    state.takeReserve(player, stack);
+                }
+            }
+        }
+        long[] masks = {masks0, masks1};
+        for(int player = 0; player < 2; player++){
+            for(long bits = masks[player]; bits != 0; bits &= bits - 1){
+                int bit = Long.numberOfTrailingZeros(bits);
+                state.place(player, (bit >>> 4) + 1, bit & 15);
+            }
+        }
+        return state;
+    }
+
+    /** Returns an independent copy of this state */
+    public BoardState copy(){
+        BoardState copy = new BoardState();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /** Overwrites this state with the contents of another */
+    public void copyFrom(BoardState other){
+        this.masks0 = other.masks0;
+        this.masks1 = other.masks1;
+        this.reserves = other.reserves;
+        this.visible0 = other.visible0;
+        this.visible1 = other.visible1;
+        this.lineCounts0 = other.lineCounts0;
+        this.lineCounts1 = other.lineCounts1;
+        System.arraycopy(other.boardHashes, 0, this.boardHashes, 0, Symmetry.COUNT);
+        this.reserveHash = other.reserveHash;
+    }
+
+    /** Returns the 64 bit Zobrist hash of this state, not including the side to move */
+    public long hash(){
+        return this.boardHashes[0] ^ this.reserveHash;
+    }
+
+    /**
+     * Returns the Zobrist hash of this state with the side to move mixed in
+     * @param player index of the player to move
+     */
+    public long hash(int player){
+        return player == 0 ? hash() : hash() ^ Zobrist.SIDE;
+    }
+
+    /**
+     * Returns a hash shared by all 8 rotations and reflections of this state: the smallest of their hashes
+     */
+    public long canonicalHash(){
+        return this.boardHashes[canonicalSymmetry()] ^ this.reserveHash;
+    }
+
+    /** Returns the symmetry whose image of this state gives the canonical hash */
+    public int canonicalSymmetry(){
+        int best = 0;
+        for(int k = 1; k < Symmetry.COUNT; k++){
+            if(this.boardHashes[k] < this.boardHashes[best]){
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /** Returns all four occupancy masks of a player packed into one long */
+    public long masks(int player){
+        return player == 0 ? this.masks0 : this.masks1;
+    }
+
+    /** Returns the packed external stack counts */
+    public int reserves(){
+        return this.reserves;
+    }
+
+    /** Returns the 16 bit occupancy mask of a player's pieces of the given size (1-4) */
+    public int occupancy(int player, int size){
+        return (int) (masks(player) >>> ((size - 1) << 4)) & 0xFFFF;
+    }
+
+    /** Returns the size of the top piece of a cell, 0 if the cell is empty */
+    public int topSize(int cell){
+        long all = (this.masks0 | this.masks1) >>> cell;
+        for(int size = 1; size <= SIZES; size++){
+            if((all & 1L) != 0){
+                return size;
+            }
+            all >>>= 16;
+        }
+        return 0;
+    }
+
+    /** Returns the owner of the top piece of a cell, -1 if the cell is empty */
+    public int topOwner(int cell){
+        int bit = 1 << cell;
+        if((this.visible0 & bit) != 0){
+            return 0;
+        }
+        return (this.visible1 & bit) != 0 ? 1 : -1;
+    }
+
+    /** Finds the owner of the top piece of a cell from the occupancy masks alone, -1 if the cell is empty */
+    private int scanTopOwner(int cell){
+        int size = topSize(cell);
+        if(size == 0){
+            return -1;
+        }
+        return (occupancy(0, size) & (1 << cell)) != 0 ? 0 : 1;
+    }
+
+    /** Returns the owner of the piece of the given size in a cell, -1 if there is none */
+    public int ownerAt(int cell, int size){
+        int bit = 1 << cell;
+        if((occupancy(0, size) & bit) != 0){
+            return 0;
+        }
+        if((occupancy(1, size) & bit) != 0){
+            return 1;
+        }
+        return -1;
+    }
+
+    /** Returns the sizes stacked in a cell as a four bit set, bit s - 1 standing for size s */
+    public int sizesAt(int cell){
+        long all = (this.masks0 | this.masks1) >>> cell;
+        return (int) (all & 1L | (all >>> 15) & 2L | (all >>> 30) & 4L | (all >>> 45) & 8L);
+    }
+
+    /** Returns the number of pieces stacked in a cell */
+    public int height(int cell){
+        long all = (this.masks0 | this.masks1) >>> cell;
+        int height = 0;
+        for(int size = 1; size <= SIZES; size++){
+            height += (int) (all & 1L);
+            all >>>= 16;
+        }
+        return height;
+    }
+
+    /** Returns the number of pieces left in one of a player's external stacks */
+    public int reserveCount(int player, int stack){
+        return (this.reserves >>> (3 * (player * STACKS + stack))) & 7;
+    }
+
+    /** Returns the size of the top piece of an external stack, 0 if the stack is empty */
+    public int reserveSize(int player, int stack){
+        int count = reserveCount(player, stack);
+        return count == 0 ? 0 : STACK_HEIGHT + 1 - count;
+    }
+
+    /** Returns the mask of cells whose top piece belongs to the given player */
+    public int visible(int player){
+        return player == 0 ? this.visible0 : this.visible1;
+    }
+
+    /** Returns the number of top pieces a player shows in a line, given by its index in LINES */
+    public int lineCount(int player, int line){
+        return ((player == 0 ? this.lineCounts0 : this.lineCounts1) >>> (3 * line)) & 7;
+    }
+
+    /** Returns a bit set over LINES of the lines where a player shows at least three pieces */
+    public int threatLines(int player){
+        int threes = threes(player);
+        int lines = 0;
+        for(; threes != 0; threes &= threes - 1){
+            lines |= 1 << (Integer.numberOfTrailingZeros(threes) / 3);
+        }
+        return lines;
+    }
+
+    /** Returns the lowest bit of every line counter of a player that holds three or four */
+    private int threes(int player){
+        int counts = player == 0 ? this.lineCounts0 : this.lineCounts1;
+        // counters never exceed four, so three or more is either the four bit or both low bits
+        return ((counts >>> 2) | (counts >>> 1) & counts) & COUNTER_ONES;
+    }
+
+    /**
+     * Determines if a player shows four of their pieces in any row or column, or in both diagonals at once;
+     * a single diagonal does not win
+     */
+    public boolean isWinner(int player){
+        int counts = player == 0 ? this.lineCounts0 : this.lineCounts1;
+        int fours = (counts >>> 2) & COUNTER_ONES;
+        return (fours & ORTHOGONAL_ONES) != 0 || (fours & DIAGONAL_ONES) == DIAGONAL_ONES;
+    }
+
+    /**
+     * Determines if a player shows at least three pieces in a row, column, or diagonal running through a cell
+     * @param player player whose pieces are counted
+     * @param cell board cell
+     * @return true if such a line exists, false otherwise
+     */
+    public boolean threeInLine(int player, int cell){
+        return (threes(player) & CELL_COUNTS[cell]) != 0;
+    }
+
+    /**
+     * Pieces from the external stacks may only be played on empty tiles unless they gobble one of the player's
+     * own pieces where canGobbleFromStack allows it, the rule of the original model
+     * @param player player placing the piece
+     * @param stack external stack the piece is taken from
+     * @param cell destination cell
+     * @return true if the placement is legal, false otherwise
+     */
+    public boolean canPlaceFromStack(int player, int stack, int cell){
+        int size = reserveSize(player, stack);
+        if(size == 0){
+            return false;
+        }
+        int top = topSize(cell);
+        if(top == 0){
+            return true;
+        }
+        return size < top && ownerAt(cell, top) == player && canGobbleFromStack(player, cell);
+    }
+
+    /**
+     * A player may gobble from an external stack only where the opponent shows three pieces in the row or
+     * column of the target cell, or, for a cell on either diagonal, in either diagonal
+     * @param player player placing the piece
+     * @param cell target cell
+     * @return true if the opponent has such a line, false otherwise
+     */
+    public boolean canGobbleFromStack(int player, int cell){
+        return (threes(1 - player) & GOBBLE_COUNTS[cell]) != 0;
+    }
+
+    /**
+     * A piece on the board may move to any empty tile or gobble any smaller piece
+     * @param player player moving the piece
+     * @param from cell the piece is lifted from
+     * @param to destination cell
+     * @return true if the move is legal, false otherwise
+     */
+    public boolean canMoveOnBoard(int player, int from, int to){
+        if(from == to || topOwner(from) != player){
+            return false;
+        }
+        int top = topSize(to);
+        return top == 0 || topSize(from) < top;
+    }
+
+    /**
+     * Determines if an encoded move is legal for a player
+     * @param player player making the move
+     * @param move move encoded with Move
+     * @return true if the move is legal, false otherwise
+     */
+    public boolean isLegal(int player, int move){
+        if(!Move.isValid(move)){
+            return false;
+        }
+        if(Move.isStackMove(move)){
+            return canPlaceFromStack(player, Move.stackNum(move), Move.to(move));
+        }
+        return canMoveOnBoard(player, Move.from(move), Move.to(move));
+    }
+
+    /**
+     * Writes every legal move of a player into a buffer, placements from the external stacks first
+     * Follows the same rules as canPlaceFromStack and canMoveOnBoard without allocating
+     * @param player player to move
+     * @param moves buffer of at least Move.MAX_MOVES entries
+     * @return number of moves written
+     */
+    public int generateMoves(int player, int[] moves){
+        long all = this.masks0 | this.masks1;
+
+        // a piece may land where no piece of the same or a bigger size (smaller size number) is stacked
+        int upTo1 = (int) all & 0xFFFF;
+        int upTo2 = upTo1 | (int) (all >>> 16) & 0xFFFF;
+        int upTo3 = upTo2 | (int) (all >>> 32) & 0xFFFF;
+        int occupied = upTo3 | (int) (all >>> 48) & 0xFFFF;
+
+        // own pieces in the row or column of a line where the opponent shows three or more pieces, and on
+        // either diagonal when the opponent shows three in one of them
+        int gobbleCells = 0;
+        for(int threes = threes(1 - player); threes != 0; threes &= threes - 1){
+            int line = Integer.numberOfTrailingZeros(threes) / 3;
+            gobbleCells |= line < 8 ? LINES[line] : DIAGONAL_CELLS;
+        }
+        int stackTargets = ~occupied | (visible(player) & gobbleCells);
+
+        int count = 0;
+        for(int stack = 0; stack < STACKS; stack++){
+            int size = reserveSize(player, stack);
+            if(size == 0){
+                continue;
+            }
+            int targets = stackTargets & ~landingBlockers(size, upTo1, upTo2, upTo3, occupied) & 0xFFFF;
+            for(; targets != 0; targets &= targets - 1){
+                moves[count++] = Move.stack(stack, Integer.numberOfTrailingZeros(targets));
+            }
+        }
+
+        for(int sources = visible(player); sources != 0; sources &= sources - 1){
+            int from = Integer.numberOfTrailingZeros(sources);
+            int targets = ~landingBlockers(topSize(from), upTo1, upTo2, upTo3, occupied) & 0xFFFF;
+            for(; targets != 0; targets &= targets - 1){
+                moves[count++] = Move.board(from, Integer.numberOfTrailingZeros(targets));
+            }
+        }
+        return count;
+    }
+
+    /** Selects the mask of cells holding a piece of the given size or bigger */
+    private static int landingBlockers(int size, int upTo1, int upTo2, int upTo3, int upTo4){
+        switch(size){
+            case 1: return upTo1;
+            case 2: return upTo2;
+            case 3: return upTo3;
+            default: return upTo4;
+        }
+    }
+
+    /**
+     * Applies a legal move, see generateMoves
+     * @param player player making the move
+     * @param move move encoded with Move
+     */
+    public void apply(int player, int move){
+        int to = Move.to(move);
+        if(Move.isStackMove(move)){
+            int stack = Move.stackNum(move);
+            place(player, reserveSize(player, stack), to);
+            takeReserve(player, stack);
+        } else {
+            int from = Move.from(move);
+            place(player, topSize(from), to);
+            lift(from);
+        }
+    }
+
+    /**
+     * Reverts a move applied with apply; the moved piece must still be on top of its destination
+     * @param player player that made the move
+     * @param move move encoded with Move
+     */
+    public void undo(int player, int move){
+        int to = Move.to(move);
+        if(Move.isStackMove(move)){
+            lift(to);
+            returnReserve(player, Move.stackNum(move));
+        } else {
+            place(player, topSize(to), Move.from(move));
+            lift(to);
+        }
+    }
+
+    /** Places a piece of the given owner and size on top of a cell */
+    void place(int player, int size, int cell){
+        int before = scanTopOwner(cell);
+        long bit = 1L << (((size - 1) << 4) + cell);
+        if(player == 0){
+            this.masks0 |= bit;
+        } else {
+            this.masks1 |= bit;
+        }
+        togglePiece(player, size, cell);
+        changeTop(cell, before, scanTopOwner(cell));
+    }
+
+    /** Removes the top piece of a cell, the cell must not be empty */
+    void lift(int cell){
+        int size = topSize(cell);
+        int before = ownerAt(cell, size);
+        togglePiece(before, size, cell);
+        long bit = 1L << (((size - 1) << 4) + cell);
+        this.masks0 &= ~bit;
+        this.masks1 &= ~bit;
+        changeTop(cell, before, scanTopOwner(cell));
+    }
+
+    /** Moves a cell between the visible masks and line counters of its old and new top owners */
+    private void changeTop(int cell, int before, int after){
+        if(before == after){
+            return;
+        }
+        if(before == 0){
+            this.visible0 &= ~(1 << cell);
+            this.lineCounts0 -= CELL_COUNTS[cell];
+        } else if(before == 1){
+            this.visible1 &= ~(1 << cell);
+            this.lineCounts1 -= CELL_COUNTS[cell];
+        }
+        if(after == 0){
+            this.visible0 |= 1 << cell;
+            this.lineCounts0 += CELL_COUNTS[cell];
+        } else if(after == 1){
+            this.visible1 |= 1 << cell;
+            this.lineCounts1 += CELL_COUNTS[cell];
+        }
+    }
+
+    /** Removes the top piece of an external stack, the stack must not be empty */
+    void takeReserve(int player, int stack){
+        int count = reserveCount(player, stack);
+        this.reserveHash ^= Zobrist.RESERVES[player][stack][count] ^ Zobrist.RESERVES[player][stack][count - 1];
+        this.reserves -= 1 << (3 * (player * STACKS + stack));
+    }
+
+    /** Returns a piece to the top of an external stack */
+    void returnReserve(int player, int stack){
+        int count = reserveCount(player, stack);
+        this.reserveHash ^= Zobrist.RESERVES[player][stack][count] ^ Zobrist.RESERVES[player][stack][count + 1];
+        this.reserves += 1 << (3 * (player * STACKS + stack));
+    }
+
+    /** Toggles a piece in the board hashes of every symmetry */
+    private void togglePiece(int player, int size, int cell){
+        long[] keys = Zobrist.PIECES[player][size];
+        for(int k = 0; k < Symmetry.COUNT; k++){
+            this.boardHashes[k] ^= keys[Symmetry.CELL_MAP[k][cell]];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof BoardState)){
+            return false;
+        }
+        BoardState other = (BoardState) o;
+        return this.masks0 == other.masks0 && this.masks1 == other.masks1 && this.reserves == other.reserves;
+    }
+
+    @Override
+    public int hashCode(){
+        return Long.hashCode(hash());
+    }
+}
@@ -0,0 +1,28 @@
+package ai;
+
+import model.BoardState;
+
+/**
+ * Engine that plays from an opening book while the position is in it and searches with another engine after
+ */
+public class BookEngine implements SearchEngine {
+
+    private final OpeningBook book;
+
+    /** Engine used once the game leaves the book */
+    private final SearchEngine engine;
+
+    public BookEngine(OpeningBook book, SearchEngine engine){
+        this.book = book;
+        this.engine = engine;
+    }
+
+    @Override
+    public SearchResult search(BoardState state, int player){
+        SearchResult result = this.book.lookup(state, player);
+        if(result != null){
+            return result;
+        }
+        return this.engine.search(state, player);
+    }
+}
@@ -0,0 +1,56 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct buffers of one size, carved out of large slabs
+ * Connections take their buffers when they open and give them back when they close, so the number of direct
+ * buffers only grows with the most connections ever open at once and nothing is allocated per message.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+
+    /** Buffers carved out of each slab */
+    private final int slabBuffers;
+
+    /** Buffers not in use; guarded by this pool */
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    /** Buffers carved so far; guarded by this pool */
+    private int allocated = 0;
+
+    /**
+     * Creates an empty pool
+     * @param bufferSize capacity of each buffer
+     * @param slabBuffers number of buffers allocated at once when the pool runs out
+     */
+    BufferPool(int bufferSize, int slabBuffers){
+        this.bufferSize = bufferSize;
+        this.slabBuffers = slabBuffers;
+    }
+
+    /** Takes a cleared buffer from the pool */
+    synchronized ByteBuffer acquire(){
+        if(this.free.isEmpty()){
+            ByteBuffer slab = ByteBuffer.allocateDirect(this.bufferSize * this.slabBuffers);
+            for(int i = 0; i < this.slabBuffers; i++){
+                slab.limit((i + 1) * this.bufferSize).position(i * this.bufferSize);
+                this.free.push(slab.slice());
+            }
+            this.allocated += this.slabBuffers;
+        }
+        return this.free.pop().clear();
+    }
+
+    /** Gives a buffer back; it must not be used afterwards */
+    synchronized void release(ByteBuffer buffer){
+        this.free.push(buffer);
+    }
+
+    /** Returns the number of buffers carved so far */
+    synchronized int getAllocated(){
+        return this.allocated;
+    }
+}
@@ -1,8 +1,20 @@
 package model;
 
 public class ClientData {
-    private String message;
-    private boolean reconstruct;
+    private final String message;
+    private final boolean reconstruct;
+
+    /** Board cells whose stacks changed, one bit per cell (row * 4 + col) */
+    private final int changedCells;
+
+    /** External stacks whose counts changed, bit player * 3 + stack */
+    private final int changedStacks;
+
+    /** Whether the turn passed to the other player */
+    private final boolean turnChanged;
+
+    /** Whether updates before this one were lost, so the observer has to resync from the subject */
+    private final boolean lost;
 
 
     /**
@@ -11,8 +23,67 @@ public class ClientData {
      * @param reconstruct boolean indicating whether the board and external stacks need to be rebuilt
      */
     public ClientData(String message, boolean reconstruct){
+        this(message, reconstruct, 0, 0, false);
+    }
+
+    /**
+     * Data sent from the model listing what changed, so only those parts of the board need to be redrawn
+     * @param message message to display on the output
+     * @param reconstruct boolean indicating whether everything needs to be rebuilt regardless of the changes
+     * @param changedCells board cells that changed, bit row * 4 + col
+     * @param changedStacks external stacks that changed, bit player * 3 + stack
+     * @param turnChanged whether the turn passed to the other player
+     */
+    public ClientData(String message, boolean reconstruct, int changedCells, int changedStacks, boolean turnChanged){
+        this(message, reconstruct, changedCells, changedStacks, turnChanged, false);
+    }
+
+    private ClientData(String message, boolean reconstruct, int changedCells, int changedStacks, boolean turnChanged,
+                       boolean lost){
         this.message = message;
         this.reconstruct = reconstruct;
+        this.changedCells = changedCells;
+        this.changedStacks = changedStacks;
+        this.turnChanged = turnChanged;
+        this.lost = lost;
+    }
+
+    /**
+     * Marks an update that follows lost ones: it asks for a reconstruct, since the changes of the lost updates
+     * are unknown
+     * @param latest latest update, whose message is kept
+     */
+    public static ClientData resync(ClientData latest){
+        return new ClientData(latest.message, true, 0, 0, false, true);
+    }
+
+    /**
+     * Describes the changes made by a move: its source and destination, and the turn passing on
+     * @param message message to display on the output
+     * @param move move encoded with Move
+     * @param mover index of the player that made the move
+     * @param turnChanged whether the turn passed to the other player, false when the move ended the game
+     */
+    public static ClientData forMove(String message, int move, int mover, boolean turnChanged){
+        int cells = 1 << Move.to(move);
+        int stacks = 0;
+        if(Move.isStackMove(move)){
+            stacks = 1 << (mover * BoardState.STACKS + Move.stackNum(move));
+        } else {
+            cells |= 1 << Move.from(move);
+        }
+        return new ClientData(message, false, cells, stacks, turnChanged);
+    }
+
+    /**
+     * Folds a later update into this one
+     * @param later update that came after this one
+     * @return the later message with the changes of both updates
+     */
+    public ClientData merge(ClientData later){
+        return new ClientData(later.message, this.reconstruct || later.reconstruct,
+                this.changedCells | later.changedCells, this.changedStacks | later.changedStacks,
+                this.turnChanged != later.turnChanged, this.lost || later.lost);
     }
 
 
@@ -23,4 +94,22 @@ public class ClientData {
     public boolean getReconstruct() {
         return this.reconstruct;
     }
+
+    public int getChangedCells() {
+        return this.changedCells;
+    }
+
+    /** Returns the changed external stacks of a player as a bit set over stack numbers */
+    public int getChangedStacks(int player) {
+        return (this.changedStacks >>> (player * BoardState.STACKS)) & ((1 << BoardState.STACKS) - 1);
+    }
+
+    public boolean getTurnChanged() {
+        return this.turnChanged;
+    }
+
+    /** Returns true if updates before this one were lost, so only the subject of this one can be relied on */
+    public boolean getLost() {
+        return this.lost;
+    }
 }
@@ -0,0 +1,44 @@
+package ai;
+
+import model.BoardState;
+import model.Player;
+
+/**
+ * A player whose moves are chosen by a search engine
+ */
+public class ComputerPlayer extends Player {
+
+    /** Engine that chooses this player's moves */
+    private final SearchEngine engine;
+
+    /** Result of the most recent search, may be null */
+    private volatile SearchResult lastResult = null;
+
+    /**
+     * Creates a new computer player
+     * @param name Player username
+     * @param initTime initial time on the player timer, may be no timer
+     * @param engine engine that chooses the moves
+     */
+    public ComputerPlayer(String name, String initTime, SearchEngine engine){
+        super(name, initTime);
+        this.engine = engine;
+    }
+
+    /**
+     * Searches for this player's next move; may take the whole engine budget so it should not be called from
+     * the JavaFX application thread
+     * @param state copy of the current game state
+     * @return the chosen move and search statistics
+     */
+    public SearchResult chooseMove(BoardState state){
+        SearchResult result = this.engine.search(state, getIndex());
+        this.lastResult = result;
+        return result;
+    }
+
+    /** Returns the result of the most recent search, may be null */
+    public SearchResult getLastResult(){
+        return this.lastResult;
+    }
+}
@@ -0,0 +1,158 @@
+package common;
+
+import model.ClientData;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers updates to observers asynchronously, so publishing never waits on an observer
+ * Every observer has its own bounded queue and receives its updates in order, one at a time, on the executor
+ * it was subscribed with: the JavaFX application thread through Platform::runLater, or by default a shared
+ * pool of daemon dispatcher threads. An observer that only renders the current state of the subject can ask
+ * for coalescing, which folds every pending update into one carrying the latest message and the changes of
+ * all of them. Any other observer gets every update in turn until its queue is full; publishing never
+ * blocks, so a full queue is replaced by a single resync update, marked by ClientData.getLost, carrying the
+ * latest subject.
+ * @param <Subject> type of the object that publishes updates
+ */
+public class EventBus<Subject> {
+
+    /** Updates a queue holds before dropping the oldest */
+    public static final int QUEUE_CAPACITY = 64;
+
+    /** Runs the deliveries of observers subscribed without an executor */
+    private static final ExecutorService DISPATCHER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "observer-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /** Updates replaced by a resync because a queue was full */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Creates an event bus without subscriptions */
+    public EventBus(){
+    }
+
+    /**
+     * Subscribes an observer delivered on the shared dispatcher threads, without coalescing
+     * @param observer observer to update
+     */
+    public void subscribe(Observer<Subject> observer){
+        subscribe(observer, DISPATCHER, false);
+    }
+
+    /**
+     * Subscribes an observer
+     * @param observer observer to update
+     * @param executor runs the deliveries, such as Platform::runLater for an observer that touches the GUI
+     * @param coalesce whether pending updates are folded into one
+     */
+    public void subscribe(Observer<Subject> observer, Executor executor, boolean coalesce){
+        this.subscriptions.add(new Subscription(observer, executor, coalesce));
+    }
+
+    /** Removes every subscription of an observer; updates already being delivered still arrive */
+    public void unsubscribe(Observer<Subject> observer){
+        this.subscriptions.removeIf(subscription -> subscription.observer == observer);
+    }
+
+    /**
+     * Queues an update for every observer and returns without waiting for any of them
+     * @param subject object that changed
+     * @param data description of the change
+     */
+    public void publish(Subject subject, ClientData data){
+        for(Subscription subscription: this.subscriptions){
+            subscription.offer(subject, data);
+        }
+    }
+
+    /** Returns the number of updates replaced by a resync because an observer fell too far behind */
+    public long getDropped(){
+        return this.dropped.get();
+    }
+
+    /**
+     * An observer with its queue of pending updates
+     */
+    private final class Subscription implements Runnable {
+
+        private final Observer<Subject> observer;
+
+        private final Executor executor;
+
+        private final boolean coalesce;
+
+        /** Pending subjects and updates, in pairs; guarded by this subscription */
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+        /** Whether a delivery run is queued on the executor or running; guarded by this subscription */
+        private boolean scheduled = false;
+
+        Subscription(Observer<Subject> observer, Executor executor, boolean coalesce){
+            this.observer = observer;
+            this.executor = executor;
+            this.coalesce = coalesce;
+        }
+
+        void offer(Subject subject, ClientData data){
+            synchronized(this){
+                if(this.coalesce && !this.pending.isEmpty()){
+                    ClientData last = (ClientData) this.pending.pollLast();
+                    this.pending.pollLast();
+                    data = last.merge(data);
+                } else if(this.pending.size() == 2 * QUEUE_CAPACITY){
+                    // the subject is the whole state, so the latest one stands in for every update lost
+                    this.pending.clear();
+                    data = ClientData.resync(data);
+                    dropped.addAndGet(QUEUE_CAPACITY);
+                }
+                this.pending.add(subject);
+                this.pending.add(data);
+                if(this.scheduled){
+                    return;
+                }
+                this.scheduled = true;
+            }
+            this.executor.execute(this);
+        }
+
+        /**
+         * Delivers pending updates until the queue is empty
+         * An observer that fails ends the run: the updates behind it go on in a new run and the failure is
+         * thrown on to the executor's thread and its uncaught exception handler.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run(){
+            while(true){
+                Subject subject;
+                ClientData data;
+                synchronized(this){
+                    if(this.pending.isEmpty()){
+                        this.scheduled = false;
+                        return;
+                    }
+                    subject = (Subject) this.pending.poll();
+                    data = (ClientData) this.pending.poll();
+                }
+                try{
+                    this.observer.update(subject, data);
+                } catch(Throwable e){
+                    // still scheduled, so the new run is the only one
+                    this.executor.execute(this);
+                    throw e;
+                }
+            }
+        }
+    }
+}
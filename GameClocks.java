@@ -0,0 +1,50 @@
+package model;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One scheduler thread shared by the clocks of every game in the process
+ * Timeouts are scheduled at the exact deadline of the running clock, and cancelled when the player moves, so
+ * any number of timed games costs a single thread.
+ */
+public final class GameClocks {
+
+    private static final ScheduledExecutorService SCHEDULER;
+
+    static {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "game-clocks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled timeouts are dropped at once instead of waiting out their deadlines in the queue
+        scheduler.setRemoveOnCancelPolicy(true);
+        SCHEDULER = scheduler;
+    }
+
+    private GameClocks(){
+    }
+
+    /**
+     * Runs a task once at a System.nanoTime deadline
+     * @param task task to run; it should hand off any real work rather than hold up the clock thread
+     * @param deadline System.nanoTime at which the task runs
+     * @return a handle to cancel the task
+     */
+    public static ScheduledFuture<?> at(Runnable task, long deadline){
+        return SCHEDULER.schedule(task, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs a task repeatedly, such as refreshing a clock display
+     * @param task task to run; it should hand off any real work rather than hold up the clock thread
+     * @param periodMillis time between runs
+     * @return a handle to cancel the task
+     */
+    public static ScheduledFuture<?> every(Runnable task, long periodMillis){
+        return SCHEDULER.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,293 @@
+package server;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the games of a server, so games in progress survive a crash
+ * Every game's creation, each move accepted and its end are appended as fixed-size records to a segment file
+ * mapped into memory, so appending is a few stores into the page cache under a lock and costs well under a
+ * microsecond. A background thread forces what was appended to disk every FORCE_MILLIS, committing the
+ * moves of every game in one batch; a crash of the process loses nothing, a crash of the machine at most
+ * the moves of the last interval. When a segment is full the journal moves on to the next one.
+ * On startup recover reads every segment, rebuilds the games that had not ended, writes them compactly to a
+ * fresh segment and deletes the old ones.
+ * Record: game id(4) type(1) increment(1) ply(2) move(2) check(2) clock(4), where a CREATED record holds the
+ * initial seconds in clock and the delay in move, and a MOVED record the clock of the player who moved, in
+ * milliseconds, -1 without a clock.
+ */
+final class GameJournal implements AutoCloseable {
+
+    static final int RECORD_SIZE = 16;
+
+    /** Records per segment */
+    static final int SEGMENT_RECORDS = 1 << 20;
+
+    /** Milliseconds between forces of the journal to disk */
+    static final int FORCE_MILLIS = 5;
+
+    private static final byte CREATED = 1;
+    private static final byte MOVED = 2;
+    private static final byte ENDED = 3;
+
+    private final Path directory;
+
+    /** Number of the segment being appended to; guarded by this journal */
+    private int segment;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /** Offset of the next record in the segment; guarded by this journal */
+    private int position = 0;
+
+    /** Offset up to which the segment has been forced; only the force thread writes it after opening */
+    private int forced = 0;
+
+    private final ScheduledExecutorService forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-force");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A game rebuilt from the journal, with its moves in order
+     */
+    static final class RecoveredGame {
+
+        final int id;
+
+        final int seconds;
+
+        final int increment;
+
+        final int delay;
+
+        private int[] moves = new int[64];
+
+        private int ply = 0;
+
+        /** Clock of each player after their last move in milliseconds, -1 before they moved */
+        final long[] clocks = {-1, -1};
+
+        RecoveredGame(int id, int seconds, int increment, int delay){
+            this.id = id;
+            this.seconds = seconds;
+            this.increment = increment;
+            this.delay = delay;
+        }
+
+        /** Returns the moves played, in order */
+        int[] moves(){
+            return Arrays.copyOf(this.moves, this.ply);
+        }
+
+        private void add(int ply, int move, int clock){
+            // a move already read from an older segment, or one after a gap, is skipped
+            if(ply != this.ply + 1){
+                return;
+            }
+            if(this.ply == this.moves.length){
+                this.moves = Arrays.copyOf(this.moves, this.ply * 2);
+            }
+            this.moves[this.ply++] = move;
+            // players alternate, the first player making the odd plies
+            this.clocks[(ply - 1) & 1] = clock;
+        }
+    }
+
+    /**
+     * Opens the journal in a directory, creating the directory if needed; call recover before appending
+     * @param directory directory holding the segment files
+     */
+    GameJournal(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Reads every segment and returns the games that had not ended, then starts a fresh segment holding just
+     * those games, deletes the old segments and starts forcing appends to disk
+     * @throws IllegalStateException if the journal is recovered already
+     */
+    synchronized List<RecoveredGame> recover() throws IOException {
+        if(this.buffer != null){
+            throw new IllegalStateException("Journal " + this.directory + " is recovered already");
+        }
+        List<Path> segments = segments();
+        Map<Integer, RecoveredGame> games = new LinkedHashMap<>();
+        for(Path path: segments){
+            read(path, games);
+        }
+        this.segment = segments.isEmpty() ? 0 : number(segments.get(segments.size() - 1)) + 1;
+        open();
+        for(RecoveredGame game: games.values()){
+            created(game.id, game.seconds, game.increment, game.delay);
+            for(int ply = 1; ply <= game.ply; ply++){
+                moved(game.id, ply, game.moves[ply - 1], (int) game.clocks[(ply - 1) & 1]);
+            }
+        }
+        // the live games are safe in the new segment before the old ones go
+        this.buffer.force(0, this.position);
+        this.forced = this.position;
+        for(Path path: segments){
+            Files.delete(path);
+        }
+        this.forcer.scheduleWithFixedDelay(this::force, FORCE_MILLIS, FORCE_MILLIS, TimeUnit.MILLISECONDS);
+        return new ArrayList<>(games.values());
+    }
+
+    /** Appends the creation of a game with its time setting */
+    void created(int id, int seconds, int increment, int delay){
+        append(id, CREATED, increment, 0, delay, seconds);
+    }
+
+    /**
+     * Appends a move accepted by a game
+     * @param ply number of moves played including this one
+     * @param clock time left on the clock of the player who moved in milliseconds, -1 without a clock
+     */
+    void moved(int id, int ply, int move, int clock){
+        append(id, MOVED, 0, ply, move, clock);
+    }
+
+    /** Appends the end of a game, which is then not recovered */
+    void ended(int id){
+        append(id, ENDED, 0, 0, 0, 0);
+    }
+
+    private synchronized void append(int id, byte type, int increment, int ply, int move, int clock){
+        if(this.buffer == null){
+            throw new IllegalStateException("Journal " + this.directory + " must be recovered before appending");
+        }
+        if(this.position == this.buffer.capacity()){
+            roll();
+        }
+        int at = this.position;
+        this.buffer.putInt(at, id)
+                .put(at + 4, type)
+                .put(at + 5, (byte) increment)
+                .putShort(at + 6, (short) ply)
+                .putShort(at + 8, (short) move)
+                .putShort(at + 10, check(id, type, increment, ply, move, clock))
+                .putInt(at + 12, clock);
+        this.position = at + RECORD_SIZE;
+    }
+
+    /** Returns a check of a record's fields, never 0 so a zeroed slot never passes for a record */
+    private static short check(int id, byte type, int increment, int ply, int move, int clock){
+        int hash = id * 0x9E3779B1 + type;
+        hash = hash * 31 + (increment & 0xFF);
+        hash = hash * 31 + (ply & 0xFFFF);
+        hash = hash * 31 + (move & 0xFFFF);
+        hash = hash * 31 + clock;
+        hash ^= hash >>> 16;
+        return (short) (hash | 1);
+    }
+
+    /** Forces the records appended since the last force to disk */
+    private void force(){
+        MappedByteBuffer buffer;
+        int from;
+        int to;
+        synchronized(this){
+            buffer = this.buffer;
+            from = this.forced;
+            to = this.position;
+        }
+        if(to > from){
+            buffer.force(from, to - from);
+            synchronized(this){
+                // a roll in the meantime has forced the old segment and reset the offset already
+                if(buffer == this.buffer){
+                    this.forced = to;
+                }
+            }
+        }
+    }
+
+    /** Forces the full segment and moves on to a new one */
+    private void roll(){
+        this.buffer.force();
+        try{
+            this.channel.close();
+            this.segment++;
+            open();
+        } catch(IOException e){
+            throw new IllegalStateException("Cannot start journal segment " + this.segment, e);
+        }
+    }
+
+    private void open() throws IOException {
+        Path path = this.directory.resolve(String.format("journal-%08d.log", this.segment));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * RECORD_SIZE);
+        this.position = 0;
+        this.forced = 0;
+    }
+
+    /** Returns the segment files in order */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "journal-*.log")){
+            stream.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Integer.compare(number(a), number(b)));
+        return segments;
+    }
+
+    private static int number(Path segment){
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    /** Reads the records of a segment up to the first slot that holds none, such as one torn by a crash */
+    private static void read(Path path, Map<Integer, RecoveredGame> games) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for(int at = 0; at + RECORD_SIZE <= records.capacity(); at += RECORD_SIZE){
+                int id = records.getInt(at);
+                byte type = records.get(at + 4);
+                int increment = records.get(at + 5) & 0xFF;
+                int ply = records.getShort(at + 6) & 0xFFFF;
+                int move = records.getShort(at + 8) & 0xFFFF;
+                int clock = records.getInt(at + 12);
+                if(type == 0 || records.getShort(at + 10) != check(id, type, increment, ply, move, clock)){
+                    return;
+                }
+                if(type == CREATED){
+                    games.put(id, new RecoveredGame(id, clock, increment, move));
+                } else if(type == ENDED){
+                    games.remove(id);
+                } else if(games.containsKey(id)){
+                    games.get(id).add(ply, move, clock);
+                }
+            }
+        }
+    }
+
+    /** Forces everything appended to disk and stops the force thread */
+    @Override
+    public synchronized void close() throws IOException {
+        this.forcer.shutdownNow();
+        if(this.buffer == null){
+            return;
+        }
+        this.buffer.force();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Live games by id, found without locking or boxing the id
+ * A game id holds the slot of the game in the low SLOT_BITS and a generation counter above them, so a stale
+ * id of a finished game never finds the game that reused its slot.
+ */
+final class GameRegistry {
+
+    static final int SLOT_BITS = 17;
+
+    /** Most games live at once */
+    static final int CAPACITY = 1 << SLOT_BITS;
+
+    private final AtomicReferenceArray<GameSession> slots = new AtomicReferenceArray<>(CAPACITY);
+
+    /** Free slots, as a stack; guarded by this registry */
+    private final int[] free = new int[CAPACITY];
+
+    /** Index of each free slot in the stack; guarded by this registry */
+    private final int[] freeIndex = new int[CAPACITY];
+
+    private int freeCount;
+
+    /** Generation of each slot, bumped each time it is reused; guarded by this registry */
+    private final int[] generations = new int[CAPACITY];
+
+    private int size = 0;
+
+    GameRegistry(){
+        for(int i = 0; i < CAPACITY; i++){
+            this.free[i] = CAPACITY - 1 - i;
+            this.freeIndex[CAPACITY - 1 - i] = i;
+        }
+        this.freeCount = CAPACITY;
+    }
+
+    /**
+     * Reserves an id for a new game
+     * @return the id, -1 if the registry is full
+     */
+    synchronized int reserve(){
+        if(this.freeCount == 0){
+            return -1;
+        }
+        int slot = this.free[--this.freeCount];
+        // ids stay positive, leaving -1 for none
+        int generation = this.generations[slot] = (this.generations[slot] + 1) & ((1 << (31 - SLOT_BITS)) - 1);
+        this.size++;
+        return generation << SLOT_BITS | slot;
+    }
+
+    /**
+     * Reserves a given id, such as the id of a game recovered from the journal
+     * @return false if its slot is taken
+     */
+    synchronized boolean claim(int id){
+        int slot = id & (CAPACITY - 1);
+        int index = this.freeIndex[slot];
+        if(index >= this.freeCount || this.free[index] != slot){
+            return false;
+        }
+        // moves the top of the stack into the slot's place
+        int top = this.free[--this.freeCount];
+        this.free[index] = top;
+        this.freeIndex[top] = index;
+        this.generations[slot] = id >>> SLOT_BITS;
+        this.size++;
+        return true;
+    }
+
+    /** Registers a game under the id reserved for it */
+    void add(GameSession session){
+        this.slots.set(session.getId() & (CAPACITY - 1), session);
+    }
+
+    /** Returns the game with an id, null if it has finished or never existed */
+    GameSession get(int id){
+        if(id < 0){
+            return null;
+        }
+        GameSession session = this.slots.get(id & (CAPACITY - 1));
+        return session != null && session.getId() == id ? session : null;
+    }
+
+    /** Removes a game, freeing its slot */
+    synchronized void remove(GameSession session){
+        int slot = session.getId() & (CAPACITY - 1);
+        if(this.slots.compareAndSet(slot, session, null)){
+            this.freeIndex[slot] = this.freeCount;
+            this.free[this.freeCount++] = slot;
+            this.size--;
+        }
+    }
+
+    synchronized int size(){
+        return this.size;
+    }
+}
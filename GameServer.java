@@ -0,0 +1,527 @@
+package server;
+
+import model.BoardState;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Headless server hosting any number of concurrent games for players connecting over local TCP
+ * Games are kept in a registry by id and run as actors on a small shared pool of worker threads, so the
+ * number of live games is bounded by memory rather than threads. Clients speak the binary frames of Protocol,
+ * and a connection can take seats in any number of games since every frame names its game.
+ * A single selector thread accepts connections and reads their requests in place from pooled direct buffers.
+ * Replies are encoded by the games' workers straight into each connection's pooled direct send buffer and
+ * written at once; only what the socket cannot take is left for the selector thread to write, and a client
+ * that falls a whole buffer behind is disconnected. Nothing is allocated per frame sent to players.
+ * Spectators are sent each game's board as encoded once for all of them by its SpectatorChannel, several
+ * games at a time in one gathering write from the selector thread.
+ * Given a directory, the server records every game in a GameJournal and on startup recovers the games that
+ * were in progress, which their players take up again by joining them.
+ * Usage: GameServer [port] [workers] [journal directory]
+ */
+public class GameServer {
+
+    public static final int DEFAULT_PORT = 7777;
+
+    /** Seconds between status reports */
+    private static final int REPORT_SECONDS = 10;
+
+    /** Capacity of each connection's receive buffer */
+    private static final int RECEIVE_BUFFER = 4 * 1024;
+
+    /** Capacity of each connection's send buffer, how far a client may fall behind */
+    private static final int SEND_BUFFER = 32 * 1024;
+
+    /** Most buffers in one gathering write */
+    private static final int GATHER_LIMIT = 64;
+
+    /** Buffers allocated at once when a pool runs out */
+    private static final int SLAB_BUFFERS = 64;
+
+    private final GameRegistry games = new GameRegistry();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicLong moves = new AtomicLong();
+
+    /** Runs the commands of every game */
+    private final ExecutorService workers;
+
+    private final BufferPool receiveBuffers = new BufferPool(RECEIVE_BUFFER, SLAB_BUFFERS);
+
+    private final BufferPool sendBuffers = new BufferPool(SEND_BUFFER, SLAB_BUFFERS);
+
+    private final Selector selector;
+
+    /** Connections closed by other threads, for the selector thread to release */
+    private final ConcurrentLinkedQueue<Connection> closing = new ConcurrentLinkedQueue<>();
+
+    /** Handles each ready key, kept so that selecting allocates nothing */
+    private final Consumer<SelectionKey> onReady = this::ready;
+
+    /** Records the games, null without a journal */
+    private final GameJournal journal;
+
+    /** Number of games recovered from the journal on startup */
+    private int recovered = 0;
+
+    /**
+     * Creates a new server without a journal
+     * @param workers number of threads running the games' commands
+     */
+    public GameServer(int workers) throws IOException {
+        this(workers, null);
+    }
+
+    /**
+     * Creates a new server, recovering the games in progress from its journal
+     * @param workers number of threads running the games' commands
+     * @param journalDirectory directory of the journal, null for none
+     */
+    public GameServer(int workers, Path journalDirectory) throws IOException {
+        this.selector = Selector.open();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "game-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if(journalDirectory == null){
+            this.journal = null;
+            return;
+        }
+        this.journal = new GameJournal(journalDirectory);
+        for(GameJournal.RecoveredGame game: this.journal.recover()){
+            if(this.games.claim(game.id)){
+                this.games.add(new GameSession(this, game, this.workers, this.journal));
+                this.recovered++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path journal = args.length > 2 ? Paths.get(args[2]) : null;
+        GameServer server = new GameServer(workers, journal);
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-report");
+            thread.setDaemon(true);
+            return thread;
+        }).scheduleAtFixedRate(() -> System.out.println(server.report()), REPORT_SECONDS, REPORT_SECONDS,
+                TimeUnit.SECONDS);
+        if(journal != null){
+            System.out.println("Recovered " + server.getRecovered() + " games from " + journal);
+        }
+        System.out.println("Serving games on port " + port + " with " + workers + " workers");
+        server.serve(port);
+    }
+
+    /**
+     * Accepts connections on the loopback address and reads their requests, on the calling thread, until the
+     * selector fails
+     * @param port port to listen on
+     */
+    public void serve(int port) throws IOException {
+        try(ServerSocketChannel serverChannel = ServerSocketChannel.open()){
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+            while(true){
+                this.selector.select(this.onReady);
+                Connection connection;
+                while((connection = this.closing.poll()) != null){
+                    connection.release();
+                }
+            }
+        }
+    }
+
+    /** Returns the number of live games */
+    public int getGames(){
+        return this.games.size();
+    }
+
+    /** Returns the number of games recovered from the journal on startup */
+    public int getRecovered(){
+        return this.recovered;
+    }
+
+    /** Returns a line with the live games, connections, moves played so far and buffers allocated */
+    public String report(){
+        return this.games.size() + " games, " + this.connections.get() + " connections, " + this.moves.get()
+                + " moves, " + (this.receiveBuffers.getAllocated() + this.sendBuffers.getAllocated())
+                + " buffers";
+    }
+
+    void countMoves(int count){
+        this.moves.addAndGet(count);
+    }
+
+    void remove(GameSession session){
+        this.games.remove(session);
+    }
+
+    private void ready(SelectionKey key){
+        try{
+            if(key.isAcceptable()){
+                accept((ServerSocketChannel) key.channel());
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if(key.isReadable()){
+                connection.read();
+            }
+            if(key.isValid() && key.isWritable()){
+                connection.flush();
+            }
+        } catch(IOException e){
+            System.out.println("Error in the selector: " + e.getMessage());
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while((channel = serverChannel.accept()) != null){
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+            this.connections.incrementAndGet();
+        }
+    }
+
+    /**
+     * A client connection, read by the selector thread and written by the games' workers
+     */
+    final class Connection {
+
+        private final SocketChannel channel;
+
+        private SelectionKey key;
+
+        /** Requests received and not yet complete; used only by the selector thread */
+        private ByteBuffer in;
+
+        /** Replies not yet written to the socket; guarded by this connection */
+        private ByteBuffer out;
+
+        /** Whether the selector thread is waiting for the socket to take the rest of out; guarded by this */
+        private boolean writeWaiting = false;
+
+        /** Set once the connection is closing, after which nothing is sent; guarded by this connection */
+        private boolean closed = false;
+
+        /** Games this connection is seated in, resigned if it disconnects */
+        private final Set<GameSession> sessions = ConcurrentHashMap.newKeySet();
+
+        /** Games this connection watches */
+        private final Map<GameSession, SpectatorChannel.Watcher> watching = new ConcurrentHashMap<>();
+
+        /** Watched games with a board to send, each once; guarded by this connection */
+        private final ArrayDeque<SpectatorChannel.Watcher> boards = new ArrayDeque<>();
+
+        /** Board partly written, to finish before anything else; guarded by this connection */
+        private ByteBuffer partial = null;
+
+        /** Spectator whose board is partly written, holding its frame pinned, null for none or for replies */
+        private SpectatorChannel.Watcher partialWatcher = null;
+
+        /** Buffers of the next gathering write, with the watcher of each board; guarded by this connection */
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+
+        private final SpectatorChannel.Watcher[] gathered = new SpectatorChannel.Watcher[GATHER_LIMIT];
+
+        Connection(SocketChannel channel){
+            this.channel = channel;
+            this.in = receiveBuffers.acquire();
+            this.out = sendBuffers.acquire();
+        }
+
+        void addSession(GameSession session){
+            this.sessions.add(session);
+        }
+
+        void removeSession(GameSession session){
+            this.sessions.remove(session);
+        }
+
+        synchronized void sendGame(byte opcode, int id){
+            if(room()){
+                Protocol.putGame(this.out, opcode, id);
+            }
+        }
+
+        synchronized void sendGame(byte opcode, int id, int operand){
+            if(room()){
+                Protocol.putGame(this.out, opcode, id, operand);
+            }
+        }
+
+        synchronized void sendMoved(int id, int ply, int move){
+            if(room()){
+                Protocol.putMoved(this.out, id, ply, move);
+            }
+        }
+
+        synchronized void sendState(int id, int ply, int current, int winner, byte event){
+            if(room()){
+                Protocol.putState(this.out, id, ply, current, winner, event);
+            }
+        }
+
+        synchronized void sendClock(int id, long millis0, long millis1){
+            if(room()){
+                Protocol.putClock(this.out, id, millis0, millis1);
+            }
+        }
+
+        /** Makes room for a frame, false if the connection is closed or the client has fallen too far behind */
+        private boolean room(){
+            if(!this.closed && this.out.remaining() < Protocol.MAX_FRAME){
+                flush();
+                if(!this.closed && this.out.remaining() < Protocol.MAX_FRAME){
+                    close();
+                }
+            }
+            return !this.closed;
+        }
+
+        /**
+         * Tells a spectator it has a board to send; the board is written by the selector thread, once the socket
+         * is writable, together with any other boards waiting
+         */
+        synchronized void offer(SpectatorChannel.Watcher watcher){
+            if(this.closed || watcher.pending){
+                return;
+            }
+            watcher.pending = true;
+            this.boards.add(watcher);
+            waitForWrite(true);
+        }
+
+        void watching(GameSession session, SpectatorChannel.Watcher watcher){
+            this.watching.put(session, watcher);
+        }
+
+        SpectatorChannel.Watcher unwatching(GameSession session){
+            return this.watching.remove(session);
+        }
+
+        /**
+         * Writes as much of the pending replies and boards as the socket takes in one gathering write, leaving
+         * the rest for the selector thread to write once the socket is writable again
+         */
+        synchronized void flush(){
+            if(this.closed || (this.out.position() == 0 && this.partial == null && this.boards.isEmpty()
+                    && !this.writeWaiting)){
+                return;
+            }
+            int count = 0;
+            // a board partly written goes first, so frames never interleave
+            if(this.partial != null){
+                this.gather[count++] = this.partial;
+            }
+            int outIndex = count;
+            this.gather[count++] = this.out.flip();
+            SpectatorChannel.Watcher deferred = null;
+            while(count < this.gather.length && !this.boards.isEmpty()){
+                SpectatorChannel.Watcher watcher = this.boards.poll();
+                if(watcher == this.partialWatcher){
+                    // its newer board waits until its view of the older one is free
+                    deferred = watcher;
+                    continue;
+                }
+                watcher.pending = false;
+                ByteBuffer frame = watcher.frame();
+                if(frame != null){
+                    this.gathered[count] = watcher;
+                    this.gather[count++] = frame;
+                }
+            }
+            try{
+                this.channel.write(this.gather, 0, count);
+            } catch(IOException e){
+                this.out.clear();
+                close();
+            }
+            this.out.compact();
+            if(outIndex == 1 && !this.gather[0].hasRemaining()){
+                this.partial = null;
+                this.partialWatcher.release();
+                this.partialWatcher = null;
+            }
+            if(deferred != null){
+                this.boards.addFirst(deferred);
+            }
+            // boards not started go back to wait, and are sent as they are by then
+            for(int i = count - 1; i > outIndex; i--){
+                ByteBuffer frame = this.gather[i];
+                SpectatorChannel.Watcher watcher = this.gathered[i];
+                if(frame.hasRemaining() && frame.position() > 0){
+                    // the frame stays pinned until the rest is written
+                    this.partial = frame;
+                    this.partialWatcher = watcher;
+                } else {
+                    watcher.release();
+                    if(frame.hasRemaining() && !watcher.pending){
+                        watcher.pending = true;
+                        this.boards.addFirst(watcher);
+                    }
+                }
+                this.gathered[i] = null;
+            }
+            Arrays.fill(this.gather, 0, count, null);
+            waitForWrite(this.out.position() > 0 || this.partial != null || !this.boards.isEmpty());
+        }
+
+        /** Has the selector thread write when the socket is writable, or stop doing so */
+        private void waitForWrite(boolean waiting){
+            if(waiting != this.writeWaiting && !this.closed){
+                this.writeWaiting = waiting;
+                this.key.interestOps(waiting ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                selector.wakeup();
+            }
+        }
+
+        /** Reads the requests that have arrived and hands each complete one to its game */
+        void read(){
+            int count;
+            try{
+                count = this.channel.read(this.in);
+            } catch(IOException e){
+                count = -1;
+            }
+            if(count < 0){
+                close();
+                return;
+            }
+            this.in.flip();
+            while(this.in.hasRemaining()){
+                int length = Protocol.requestLength(this.in.get(this.in.position()));
+                if(length < 0){
+                    close();
+                    return;
+                }
+                if(this.in.remaining() < length){
+                    break;
+                }
+                handle(this.in);
+            }
+            this.in.compact();
+            flush();
+        }
+
+        /** Handles one complete request, reading it from the buffer */
+        private void handle(ByteBuffer request){
+            byte opcode = request.get();
+            if(opcode == Protocol.CREATE){
+                int seconds = request.getShort() & 0xFFFF;
+                int increment = request.get() & 0xFF;
+                int delay = request.get() & 0xFF;
+                int id = games.reserve();
+                if(id < 0){
+                    sendGame(Protocol.ERROR, -1, Protocol.ERROR_BUSY);
+                    return;
+                }
+                GameSession session = new GameSession(GameServer.this, id, seconds, increment, delay, this, workers,
+                        journal);
+                addSession(session);
+                games.add(session);
+                sendGame(Protocol.CREATED, id);
+                return;
+            }
+            int id = request.getInt();
+            int operand = 0;
+            if(opcode == Protocol.SELECT){
+                operand = request.get() & 0xFF;
+                if(operand >= BoardState.CELLS){
+                    sendGame(Protocol.ERROR, id, Protocol.ERROR_MALFORMED);
+                    return;
+                }
+            } else if(opcode == Protocol.STACK){
+                operand = request.get() & 0xFF;
+                if(operand >= BoardState.STACKS){
+                    sendGame(Protocol.ERROR, id, Protocol.ERROR_MALFORMED);
+                    return;
+                }
+            } else if(opcode == Protocol.MOVE){
+                operand = request.getShort() & 0xFFFF;
+                // a source past the last stack or bits past the destination cannot be a move
+                if(operand >> 9 != 0 || (operand & 31) >= BoardState.CELLS + BoardState.STACKS){
+                    sendGame(Protocol.ERROR, id, Protocol.ERROR_MALFORMED);
+                    return;
+                }
+            }
+            GameSession session = games.get(id);
+            if(session == null){
+                sendGame(Protocol.ERROR, id, Protocol.ERROR_NO_GAME);
+            } else if(opcode == Protocol.WATCH){
+                session.watch(this);
+            } else if(opcode == Protocol.UNWATCH){
+                session.unwatch(this);
+            } else if(!session.offer(this, opcode, operand)){
+                sendGame(Protocol.ERROR, id, Protocol.ERROR_BUSY);
+            }
+        }
+
+        /** Stops sending and has the selector thread release the connection; safe to call from any thread */
+        void close(){
+            synchronized(this){
+                if(this.closed){
+                    return;
+                }
+                this.closed = true;
+            }
+            closing.add(this);
+            selector.wakeup();
+        }
+
+        /** Closes the socket, returns the buffers to their pools and resigns the connection's games */
+        private void release(){
+            this.key.cancel();
+            try{
+                this.channel.close();
+            } catch(IOException e){
+                // already closed
+            }
+            receiveBuffers.release(this.in);
+            this.in = null;
+            synchronized(this){
+                sendBuffers.release(this.out);
+                this.out = null;
+                if(this.partialWatcher != null){
+                    this.partialWatcher.release();
+                    this.partialWatcher = null;
+                }
+            }
+            for(GameSession session: this.sessions){
+                session.leave(this);
+            }
+            for(GameSession session: this.watching.keySet()){
+                session.unwatch(this);
+            }
+            connections.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package server;
+
+import common.Observer;
+import common.SerialExecutor;
+import model.ClientData;
+import model.GameSnapshot;
+import model.GobbletsModel;
+import model.Move;
+import model.Player;
+import model.PlayerTimer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * One game hosted by the server, run as an actor on the server's shared worker pool
+ * Every command of the game, the clock's timeouts and the delivery of its updates run one at a time on the
+ * game's own SerialExecutor, so the seats and the model are only ever touched by one thread and need no
+ * locks, and the players receive the updates in the order the moves were played. Commands wait in a small
+ * ring of primitive slots rather than as objects, and the model is created once the second player joins,
+ * so the first player's clock does not run while they wait for an opponent.
+ */
+final class GameSession implements Observer<GameSnapshot> {
+
+    /** Commands a game holds before refusing more, a power of two */
+    private static final int MAILBOX_SIZE = 16;
+
+    private final GameServer server;
+
+    private final int id;
+
+    /** Time setting of both players; no clock when the initial time is 0 */
+    private final int seconds;
+
+    private final int increment;
+
+    private final int delay;
+
+    /** Runs the game's commands one at a time on the worker pool */
+    private final SerialExecutor mailbox;
+
+    /** Pending commands as opcode << 16 | operand, with their senders, in a ring; guarded by commands */
+    private final int[] commands = new int[MAILBOX_SIZE];
+
+    private final GameServer.Connection[] senders = new GameServer.Connection[MAILBOX_SIZE];
+
+    private int head = 0;
+
+    private int count = 0;
+
+    /** Runs the oldest pending command, queued on the mailbox once per command */
+    private final Runnable next = this::runNext;
+
+    /** Connection in each seat, null while the seat is free; a connection may hold both seats */
+    private final GameServer.Connection[] seats = new GameServer.Connection[2];
+
+    /** Created when the second seat is taken, null until then */
+    private GobbletsModel model = null;
+
+    /** Number of moves played when the last update was sent */
+    private int ply = 0;
+
+    /** Whether the game is over and removed from the server */
+    private boolean closed = false;
+
+    private final SpectatorChannel spectators = new SpectatorChannel();
+
+    /** Whether the spectators' latest board is behind the game, since boards are only encoded when watched */
+    private boolean boardStale = true;
+
+    /** Records the game's moves, null if the server keeps no journal */
+    private final GameJournal journal;
+
+    /** Moves of a game recovered from the journal, replayed once both players are back; null otherwise */
+    private int[] replay = null;
+
+    /** Clocks of a recovered game in milliseconds, -1 for a clock that had not moved */
+    private long[] replayClocks = null;
+
+    /**
+     * Creates a game waiting for its second player
+     * @param server server the game is registered with
+     * @param id id of the game in the server's registry
+     * @param seconds initial time of each player, 0 for no clock
+     * @param increment seconds added to a player's clock after each move
+     * @param delay seconds at the start of each turn before a player's clock runs down
+     * @param creator connection taking the first seat
+     * @param workers worker pool shared by every game
+     * @param journal journal recording the game, null for none
+     */
+    GameSession(GameServer server, int id, int seconds, int increment, int delay, GameServer.Connection creator,
+                Executor workers, GameJournal journal){
+        this.server = server;
+        this.id = id;
+        this.seconds = seconds;
+        this.increment = increment;
+        this.delay = delay;
+        this.seats[0] = creator;
+        this.mailbox = new SerialExecutor(workers);
+        this.journal = journal;
+        // a recovered game, without a creator, is in the journal already
+        if(journal != null && creator != null){
+            journal.created(id, seconds, increment, delay);
+        }
+    }
+
+    /**
+     * Creates a game recovered from the journal, with both seats free; the players take them again with JOIN
+     * and the game goes on from its last move once both are back
+     * @param server server the game is registered with
+     * @param game game read from the journal
+     * @param workers worker pool shared by every game
+     * @param journal journal recording the game
+     */
+    GameSession(GameServer server, GameJournal.RecoveredGame game, Executor workers, GameJournal journal){
+        this(server, game.id, game.seconds, game.increment, game.delay, null, workers, journal);
+        this.replay = game.moves();
+        this.replayClocks = game.clocks;
+    }
+
+    int getId(){
+        return this.id;
+    }
+
+    /**
+     * Queues a request for the game
+     * @param connection connection that sent the request
+     * @param opcode request, one of Protocol JOIN, SELECT, STACK, MOVE or RESIGN
+     * @param operand cell, stack or move of the request
+     * @return false if too many requests are waiting already
+     */
+    boolean offer(GameServer.Connection connection, byte opcode, int operand){
+        synchronized(this.commands){
+            if(this.count == MAILBOX_SIZE){
+                return false;
+            }
+            int tail = (this.head + this.count++) & (MAILBOX_SIZE - 1);
+            this.commands[tail] = opcode << 16 | operand;
+            this.senders[tail] = connection;
+        }
+        this.mailbox.execute(this.next);
+        return true;
+    }
+
+    private void runNext(){
+        int command;
+        GameServer.Connection connection;
+        synchronized(this.commands){
+            command = this.commands[this.head];
+            connection = this.senders[this.head];
+            this.senders[this.head] = null;
+            this.head = (this.head + 1) & (MAILBOX_SIZE - 1);
+            this.count--;
+        }
+        run(connection, (byte) (command >>> 16), command & 0xFFFF);
+        connection.flush();
+    }
+
+    private void run(GameServer.Connection connection, byte opcode, int operand){
+        if(opcode == Protocol.JOIN){
+            join(connection);
+        } else if(opcode == Protocol.RESIGN){
+            resign(connection);
+        } else if(this.model == null || this.model.getWinner() != null){
+            connection.sendGame(Protocol.ERROR, this.id, Protocol.ERROR_NOT_RUNNING);
+        } else if(this.seats[this.model.getCurrentPlayer().getIndex()] != connection){
+            connection.sendGame(Protocol.ERROR, this.id, Protocol.ERROR_NOT_YOUR_TURN);
+        } else if(opcode == Protocol.SELECT){
+            this.model.selectBoardPiece(operand / 4, operand % 4);
+        } else if(opcode == Protocol.STACK){
+            this.model.selectStackPiece(operand);
+        } else {
+            this.model.playMove(operand);
+        }
+    }
+
+    /**
+     * Seats a connection as the second player and starts the game; a recovered game seats its players in the
+     * order they come back and plays its moves again before it goes on
+     */
+    private void join(GameServer.Connection connection){
+        if(this.closed || this.seats[1] != null){
+            connection.sendGame(Protocol.ERROR, this.id, Protocol.ERROR_NOT_OPEN);
+            return;
+        }
+        // only a recovered game has its first seat free
+        int seat = this.seats[0] == null ? 0 : 1;
+        this.seats[seat] = connection;
+        connection.addSession(this);
+        connection.sendGame(Protocol.JOINED, this.id, seat);
+        if(seat == 0){
+            return;
+        }
+        this.model = new GobbletsModel(new Player("Player 1", timer()), new Player("Player 2", timer()),
+                this.mailbox);
+        if(this.replay != null){
+            for(int move: this.replay){
+                // a journal that does not hold a legal game cannot be resumed, so the game is dropped
+                if(!this.model.isLegalMove(move)){
+                    System.out.println("Dropping recovered game " + this.id + ": illegal move "
+                            + Move.toString(move) + " at ply " + (this.model.getPly() + 1));
+                    this.replay = null;
+                    sendAll(Protocol.CLOSED);
+                    close();
+                    return;
+                }
+                this.model.makeMove(move);
+            }
+            this.model.setClocks(this.replayClocks[0], this.replayClocks[1]);
+            this.ply = this.model.getPly();
+            this.replay = null;
+            // the game ended before its end reached the journal
+            if(this.model.getWinner() != null){
+                sendAll(Protocol.CLOSED);
+                close();
+                return;
+            }
+        }
+        // updates are delivered in the actor itself, right after the command that caused them
+        this.model.addObserver(this, Runnable::run, false);
+        sendAll(Protocol.START);
+        if(!this.spectators.isEmpty()){
+            broadcast(this.model.getSnapshot());
+        }
+    }
+
+    /** Adds a spectator of the game, who is sent the board now and after every change */
+    void watch(GameServer.Connection connection){
+        this.mailbox.execute(() -> {
+            if(this.closed){
+                connection.sendGame(Protocol.ERROR, this.id, Protocol.ERROR_NO_GAME);
+                connection.flush();
+                return;
+            }
+            if(this.model != null && this.boardStale){
+                broadcast(this.model.getSnapshot());
+            }
+            connection.watching(this, this.spectators.add(connection));
+        });
+    }
+
+    /** Removes a spectator of the game */
+    void unwatch(GameServer.Connection connection){
+        this.mailbox.execute(() -> {
+            SpectatorChannel.Watcher watcher = connection.unwatching(this);
+            if(watcher != null){
+                this.spectators.remove(watcher);
+            }
+        });
+    }
+
+    /** Encodes the board once for every spectator */
+    private void broadcast(GameSnapshot snapshot){
+        this.spectators.publish(this.id, snapshot);
+        this.boardStale = false;
+    }
+
+    /** Creates a player's clock, null without a time limit */
+    private PlayerTimer timer(){
+        if(this.seconds == 0){
+            return null;
+        }
+        return new PlayerTimer(this.seconds * 1000L, this.increment * 1000L, this.delay * 1000L);
+    }
+
+    /** Resigns for a connection that has closed, ending the game whatever requests are waiting */
+    void leave(GameServer.Connection connection){
+        this.mailbox.execute(() -> {
+            if(!this.closed){
+                resign(connection);
+            }
+        });
+    }
+
+    /** Resigns the seat of a connection, the seat whose turn it is if the connection holds both */
+    private void resign(GameServer.Connection connection){
+        int seat = seatOf(connection);
+        if(seat < 0){
+            connection.sendGame(Protocol.ERROR, this.id, Protocol.ERROR_NOT_SEATED);
+        } else if(this.model == null){
+            sendAll(Protocol.CLOSED);
+            close();
+        } else {
+            this.model.resign(this.model.getPlayer(seat));
+        }
+    }
+
+    /** Returns the seat of a connection, preferring the seat whose turn it is, -1 if it has none */
+    private int seatOf(GameServer.Connection connection){
+        int current = this.model == null ? 0 : this.model.getCurrentPlayer().getIndex();
+        if(this.seats[current] == connection){
+            return current;
+        }
+        return this.seats[1 - current] == connection ? 1 - current : -1;
+    }
+
+    /**
+     * Sends every update to the players, as the move played and the clocks after a move and as the state
+     * otherwise or once the game is won, then removes the game from the server if it is over
+     */
+    @Override
+    public void update(GameSnapshot snapshot, ClientData data){
+        int moved = snapshot.getPly() - this.ply;
+        this.server.countMoves(moved);
+        this.ply = snapshot.getPly();
+        if(moved > 0 && this.journal != null){
+            int mover = (this.ply - 1) & 1;
+            this.journal.moved(this.id, this.ply, snapshot.getLastMove(),
+                    this.seconds > 0 ? (int) snapshot.getRemainingMillis(mover) : -1);
+        }
+        byte event = Protocol.event(data.getMessage());
+        for(int seat = 0; seat < 2; seat++){
+            GameServer.Connection connection = this.seats[seat];
+            if(seat == 1 && connection == this.seats[0]){
+                break;
+            }
+            if(moved > 0){
+                connection.sendMoved(this.id, this.ply, snapshot.getLastMove());
+                if(this.seconds > 0){
+                    connection.sendClock(this.id, snapshot.getRemainingMillis(0), snapshot.getRemainingMillis(1));
+                }
+            }
+            if(moved == 0 || snapshot.getWinner() >= 0){
+                connection.sendState(this.id, this.ply, snapshot.getCurrentPlayer(), snapshot.getWinner(), event);
+            }
+            connection.flush();
+        }
+        if(this.spectators.isEmpty()){
+            this.boardStale = true;
+        } else {
+            broadcast(snapshot);
+        }
+        if(snapshot.getWinner() >= 0){
+            close();
+        }
+    }
+
+    /** Sends a frame of only the game id to each connection seated, once to a connection holding both seats */
+    private void sendAll(byte opcode){
+        if(this.seats[0] != null){
+            this.seats[0].sendGame(opcode, this.id);
+            this.seats[0].flush();
+        }
+        if(this.seats[1] != null && this.seats[1] != this.seats[0]){
+            this.seats[1].sendGame(opcode, this.id);
+            this.seats[1].flush();
+        }
+    }
+
+    /** Removes the game from the server, its players and its spectators, stopping its clocks */
+    private void close(){
+        this.closed = true;
+        this.server.remove(this);
+        for(GameServer.Connection seat: this.seats){
+            if(seat != null){
+                seat.removeSession(this);
+            }
+        }
+        this.spectators.close(this);
+        if(this.journal != null){
+            this.journal.ended(this.id);
+        }
+        if(this.model != null){
+            this.model.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable, versioned view of a game at one moment
+ * GobbletsModel publishes a new snapshot after every change to the game, so any thread can read a complete
+ * and consistent game from its latest snapshot without locking, and can tell from the version whether
+ * anything changed since it last looked.
+ */
+public final class GameSnapshot {
+
+    /** Increases by one with every snapshot a model publishes */
+    private final long version;
+
+    /** Private copy of the game state, never changed after construction */
+    private final BoardState state;
+
+    /** Index of the player whose turn it is */
+    private final int currentPlayer;
+
+    /** Index of the winner, -1 while the game goes on */
+    private final int winner;
+
+    /** Number of moves played */
+    private final int ply;
+
+    /** Last move played, Move.NONE before the first move */
+    private final int lastMove;
+
+    /** Copies of each player's clock, which keep running down if they were running; null without a timer */
+    private final PlayerTimer timer0;
+
+    private final PlayerTimer timer1;
+
+    GameSnapshot(long version, BoardState state, int currentPlayer, int winner, int ply, int lastMove,
+                 PlayerTimer timer0, PlayerTimer timer1){
+        this.version = version;
+        this.state = state.copy();
+        this.currentPlayer = currentPlayer;
+        this.winner = winner;
+        this.ply = ply;
+        this.lastMove = lastMove;
+        this.timer0 = timer0 == null ? null : timer0.copy();
+        this.timer1 = timer1 == null ? null : timer1.copy();
+    }
+
+    public long getVersion(){
+        return this.version;
+    }
+
+    /** Returns the index of the player whose turn it is */
+    public int getCurrentPlayer(){
+        return this.currentPlayer;
+    }
+
+    /** Returns the index of the winner, -1 while the game goes on */
+    public int getWinner(){
+        return this.winner;
+    }
+
+    /** Returns the number of moves played */
+    public int getPly(){
+        return this.ply;
+    }
+
+    /** Returns the last move played, Move.NONE before the first move */
+    public int getLastMove(){
+        return this.lastMove;
+    }
+
+    /** Returns a player's clock reading now, null if the game has no timer */
+    public String getTime(int player){
+        PlayerTimer timer = player == 0 ? this.timer0 : this.timer1;
+        return timer == null ? null : timer.getTime();
+    }
+
+    /** Returns a player's time left in milliseconds now, -1 if the game has no timer */
+    public long getRemainingMillis(int player){
+        PlayerTimer timer = player == 0 ? this.timer0 : this.timer1;
+        return timer == null ? -1 : TimeUnit.NANOSECONDS.toMillis(timer.remainingNanos(System.nanoTime()));
+    }
+
+    /** Returns the top piece of a board cell, null if the cell is empty */
+    public Piece getBoardPiece(int row, int col){
+        int cell = row * 4 + col;
+        int size = this.state.topSize(cell);
+        return size == 0 ? null : Piece.of(this.state.ownerAt(cell, size), size);
+    }
+
+    /** Returns the number of pieces stacked in a board cell */
+    public int getStackHeight(int row, int col){
+        return this.state.height(row * 4 + col);
+    }
+
+    /**
+     * Returns a piece of a board cell's stack
+     * @param level 0 for the bottom piece up to getStackHeight - 1 for the top piece
+     * @throws IndexOutOfBoundsException if the stack has no such level
+     */
+    public Piece getStackPiece(int row, int col, int level){
+        int cell = row * 4 + col;
+        if(level < 0 || level >= this.state.height(cell)){
+            throw new IndexOutOfBoundsException("No level " + level + " in cell " + cell);
+        }
+        int sizes = this.state.sizesAt(cell);
+        for(int size = BoardState.SIZES; ; size--){
+            if((sizes & (1 << (size - 1))) != 0 && level-- == 0){
+                return Piece.of(this.state.ownerAt(cell, size), size);
+            }
+        }
+    }
+
+    /** Returns the top piece of one of a player's external stacks, null if the stack is empty */
+    public Piece getStackTop(int player, int stack){
+        int size = this.state.reserveSize(player, stack);
+        return size == 0 ? null : Piece.of(player, size);
+    }
+
+    /** Returns the packed piece masks of a player, as BoardState.masks does */
+    public long getMasks(int player){
+        return this.state.masks(player);
+    }
+
+    /** Returns the packed external stack counts of both players, as BoardState.reserves does */
+    public int getReserves(){
+        return this.state.reserves();
+    }
+
+    /** Returns a copy of the game state that the caller may change */
+    public BoardState copyState(){
+        return this.state.copy();
+    }
+}
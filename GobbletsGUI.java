@@ -1,7 +1,7 @@
 package gui;
 
 import javafx.application.Application;
-import javafx.concurrent.ScheduledService;
+import javafx.application.Platform;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.geometry.Insets;
@@ -15,15 +15,31 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import common.Observer;
+import ai.AlphaBetaEngine;
+import ai.BookEngine;
+import ai.ComputerPlayer;
+import ai.OpeningBook;
+import ai.SearchEngine;
+import ai.SearchResult;
+import ai.TranspositionTable;
 import model.*;
 
 import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
 
 
-public class GobbletsGUI extends Application implements Observer<GobbletsModel> {
+public class GobbletsGUI extends Application implements Observer<GameSnapshot> {
 
     private static final int BOARD_BUTTON_SIZE = 180;
     private static final int STACK_BUTTON_SIZE = 80;
+    private static final int COMPUTER_TABLE_MB = 64;
+    private static final String COMPUTER_BOOK = "opening.book";
+    /** Milliseconds between redraws of the clocks */
+    private static final long CLOCK_REFRESH = 200;
 
     // All screens
 
@@ -54,35 +70,74 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
     private Button[] externalStacks;
 
     /** Service that runs the game timer*/
-    private TimerService timerService;
+    /** Redraws the clocks on the shared clock thread, null without a timer */
+    private ScheduledFuture<?> clockRefresh;
 
     /** Service that displays the board stack when hovered over*/
     private BoardStackService boardService;
 
+    /** Service that searches for a computer player's move, null when no search is running*/
+    private ComputerMoveService computerService;
 
-    private void createGame(String timeSetting, boolean includeStackDisplay){
-        this.model = new GobbletsModel(new Player("Player 1", timeSetting),
-                new Player("Player 2", timeSetting));
+    /** Why a computer player forfeited the game, shown with the winner; null unless one did */
+    private String forfeitReason;
+
+
+    /**
+     * Starts a new game
+     * @param timeSetting initial time on each player's clock
+     * @param includeStackDisplay whether the full board stack is displayed when hovered over
+     * @param computerMillis think time of a computer second player in milliseconds, 0 for a second human player
+     */
+    private void createGame(String timeSetting, boolean includeStackDisplay, long computerMillis){
+        Player player2;
+        if(computerMillis > 0){
+            SearchEngine engine = new AlphaBetaEngine(0, computerMillis,
+                    new TranspositionTable(COMPUTER_TABLE_MB, TranspositionTable.ReplacementPolicy.TWO_TIER));
+            if(Files.exists(Path.of(COMPUTER_BOOK))){
+                try{
+                    engine = new BookEngine(OpeningBook.open(Path.of(COMPUTER_BOOK)), engine);
+                } catch(IOException e){
+                    System.out.println("Could not open the opening book: " + e.getMessage());
+                }
+            }
+            player2 = new ComputerPlayer("Computer", timeSetting, engine);
+        } else {
+            player2 = new Player("Player 2", timeSetting);
+        }
+        this.model = new GobbletsModel(new Player("Player 1", timeSetting), player2);
+        this.forfeitReason = null;
         this.boardGrid = new Button[4][4];
         this.externalStacks = new Button[3];
-        this.model.addObserver(this);
+        GobbletsModel game = this.model;
+        game.addObserver((snapshot, data) -> {
+            // an update from a game that has since been left is ignored
+            if(game == this.model){
+                update(snapshot, data);
+            }
+        }, Platform::runLater, true);
 
         boolean hasTimer = !timeSetting.equals("No time limit");
 
         if(hasTimer){
-            this.timerService = new TimerService();
+            // the clocks are read from the monotonic time on every redraw, so a late redraw never loses time
+            this.clockRefresh = GameClocks.every(() -> Platform.runLater(this::updateClock), CLOCK_REFRESH);
             updateScene(createGameDisplay(true, includeStackDisplay));
-            this.timerService.start();
         } else {
-            this.timerService = null;
+            this.clockRefresh = null;
             updateScene(createGameDisplay(false, includeStackDisplay));
 
         }
     }
 
     private void exitGame(){
-        if(this.timerService != null) {
-            this.timerService.cancel();
+        this.model.close();
+        if(this.clockRefresh != null) {
+            this.clockRefresh.cancel(false);
+        }
+        if(this.computerService != null) {
+            this.computerService.cancel();
+            this.computerService = null;
         }
         this.updateScene(createMenu());
     }
@@ -123,7 +178,7 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
         this.message = new Label("message go here");
         this.message.setFont(new Font("Helvetica", 30));
 
-        this.player = new Label(this.model.getCurrentPlayer().getName());
+        this.player = new Label(this.model.getPlayer(this.model.getSnapshot().getCurrentPlayer()).getName());
         this.player.setFont(new Font("Helvetica", 36));
 
         this.stackDisplay = new Label();
@@ -153,7 +208,13 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
                 button.setMinSize(BOARD_BUTTON_SIZE, BOARD_BUTTON_SIZE);
                 button.setMaxSize(BOARD_BUTTON_SIZE, BOARD_BUTTON_SIZE);
                 button.setStyle("-fx-focus-color: transparent;");
-                button.setOnAction(ActionEvent -> model.selectBoardPiece(button.getRow(), button.getColumn()));
+                button.setOnAction(ActionEvent -> {
+                    if(humanTurn()){
+                        int r = button.getRow();
+                        int c = button.getColumn();
+                        submitHumanCommand(game -> game.selectBoardPiece(r, c));
+                    }
+                });
 
                 if(showStackDisplay){
                     button.setOnMouseEntered(ActionEvent -> {
@@ -190,21 +251,33 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
         stack0.setMinSize(STACK_BUTTON_SIZE, STACK_BUTTON_SIZE);
         stack0.setText("1");
         this.externalStacks[0] = stack0;
-        stack0.setOnAction(ActionEvent -> model.selectStackPiece(0));
+        stack0.setOnAction(ActionEvent -> {
+            if(humanTurn()){
+                submitHumanCommand(game -> game.selectStackPiece(0));
+            }
+        });
 
         Button stack1 = new StackButton(1);
         stack1.setMaxSize(STACK_BUTTON_SIZE, STACK_BUTTON_SIZE);
         stack1.setMinSize(STACK_BUTTON_SIZE, STACK_BUTTON_SIZE);
         stack1.setText("1");
         this.externalStacks[1] = stack1;
-        stack1.setOnAction(ActionEvent -> model.selectStackPiece(1));
+        stack1.setOnAction(ActionEvent -> {
+            if(humanTurn()){
+                submitHumanCommand(game -> game.selectStackPiece(1));
+            }
+        });
 
         Button stack2 = new StackButton(2);
         stack2.setMaxSize(STACK_BUTTON_SIZE, STACK_BUTTON_SIZE);
         stack2.setMinSize(STACK_BUTTON_SIZE, STACK_BUTTON_SIZE);
         this.externalStacks[2] = stack2;
         stack2.setText("1");
-        stack2.setOnAction(ActionEvent -> model.selectStackPiece(2));
+        stack2.setOnAction(ActionEvent -> {
+            if(humanTurn()){
+                submitHumanCommand(game -> game.selectStackPiece(2));
+            }
+        });
 
         stacks.getChildren().addAll(stack0, stack1, stack2);
         borderPane.setBottom(stacks);
@@ -216,13 +289,15 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
 
     /**
      * Creates the scene that allows Local Game setup
+     * @param vsComputer whether the second player is a computer
      * @return scene
      */
-    private Parent createLocalGameSetup(){
+    private Parent createLocalGameSetup(boolean vsComputer){
         BorderPane borderPane = new BorderPane();
         VBox settings = new VBox(20);
 
-        String[] timerValues = {"No time limit", "1:00", "5:00", "10:00", "15:00", "20:00", "30:00"};
+        String[] timerValues = {"No time limit", "1:00", "3:00 + 2s", "5:00", "5:00 + 3s", "5:00 delay 5s", "10:00",
+                "15:00", "20:00", "30:00"};
 
         ChoiceBox<String> timers = new ChoiceBox<>();
         timers.getItems().addAll(timerValues);
@@ -233,6 +308,14 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
         boardStackDisplay.setSelected(true);
         settings.getChildren().addAll(timers, boardStackDisplay);
 
+        String[] thinkValues = {"1 second", "3 seconds", "10 seconds"};
+        ChoiceBox<String> thinkTimes = new ChoiceBox<>();
+        thinkTimes.getItems().addAll(thinkValues);
+        thinkTimes.setValue("3 seconds");
+        if(vsComputer){
+            settings.getChildren().add(new HBox(10, new Label("Computer think time"), thinkTimes));
+        }
+
         borderPane.setCenter(settings);
         settings.setAlignment(Pos.CENTER);
 
@@ -241,7 +324,8 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
         start.setMinSize(150, 60);
         start.setMaxSize(150, 60);
         start.setFont(new Font("Helvetica", 18));
-        start.setOnAction(ActionEvent -> this.createGame(timers.getValue(), boardStackDisplay.isSelected()));
+        start.setOnAction(ActionEvent -> this.createGame(timers.getValue(), boardStackDisplay.isSelected(),
+                vsComputer ? Long.parseLong(thinkTimes.getValue().split(" ")[0]) * 1000 : 0));
         FlowPane startPane = new FlowPane(start);
         BorderPane.setMargin(startPane, new Insets(0, 0, 0, 20));
         borderPane.setBottom(startPane);
@@ -274,8 +358,10 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
 
         VBox gameModes = new VBox();
         Button localGame = new Button("Local Game");
-        localGame.setOnAction(ActionEvent -> this.updateScene(createLocalGameSetup()));
-        gameModes.getChildren().addAll(localGame);
+        localGame.setOnAction(ActionEvent -> this.updateScene(createLocalGameSetup(false)));
+        Button computerGame = new Button("Computer Game");
+        computerGame.setOnAction(ActionEvent -> this.updateScene(createLocalGameSetup(true)));
+        gameModes.getChildren().addAll(localGame, computerGame);
         borderPane.setCenter(gameModes);
         gameModes.setAlignment(Pos.CENTER);
 
@@ -285,22 +371,25 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
 
     /**
      * Updates the GUI during Gameplay
-     * @param model current game model
+     * @param snapshot game as published with the update, consistent while the writer thread moves on
      * @param clientData additional data that is used to update the gui
      */
     @Override
-    public void update(GobbletsModel model, ClientData clientData) {
-
+    public void update(GameSnapshot snapshot, ClientData clientData) {
         this.stackDisplay.setText("");
 
-        if(model.getWinner() != null){
+        if(snapshot.getWinner() >= 0){
             // Display end game screen (ignores other client data)
-            if(this.timerService != null) {
-                this.timerService.cancel();
+            if(this.clockRefresh != null) {
+                this.clockRefresh.cancel(false);
             }
             if(this.boardService != null){
                 this.boardService.cancel();
             }
+            if(this.computerService != null){
+                this.computerService.cancel();
+                this.computerService = null;
+            }
 
             for (int r = 0; r < 4; r++) {
                 for (int c = 0; c < 4; c++) {
@@ -313,94 +402,155 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
             }
 
             this.updateClock();
-            this.message.setText(model.getWinner().getName() + " has won the game");
+            String winner = this.model.getPlayer(snapshot.getWinner()).getName() + " has won the game";
+            this.message.setText(this.forfeitReason == null ? winner : winner + ": " + this.forfeitReason);
         }
         else {
             this.message.setText(clientData.getMessage());
-            this.player.setText(model.getCurrentPlayer().getName());
-
-            if (clientData.getReconstruct()) {
-                // reconstructs the board and external stacks, swaps the displayed timers
+            Player current = this.model.getPlayer(snapshot.getCurrentPlayer());
+            this.player.setText(current.getName());
+
+            // redraws the cells and external stacks that changed, or all of them on a reconstruct
+            int cells = clientData.getReconstruct() ? 0xFFFF : clientData.getChangedCells();
+            for (; cells != 0; cells &= cells - 1) {
+                int cell = Integer.numberOfTrailingZeros(cells);
+                this.updateCell(snapshot, cell / 4, cell % 4);
+            }
+            // the stack buttons show the current player's stacks, so all of them change with the turn
+            boolean allStacks = clientData.getReconstruct() || clientData.getTurnChanged();
+            int stacks = allStacks ? 0b111 : clientData.getChangedStacks(snapshot.getCurrentPlayer());
+            for (; stacks != 0; stacks &= stacks - 1) {
+                this.updateStack(snapshot, Integer.numberOfTrailingZeros(stacks));
+            }
+            if (allStacks) {
+                // swaps the displayed timers
                 this.updateClock();
-                for (int r = 0; r < 4; r++) {
-                    for (int c = 0; c < 4; c++) {
-                        StringBuilder pieceText = new StringBuilder();
-                        Piece piece = model.getBoardPiece(r, c);
-                        if (piece != null) {
-                            pieceText.append(piece.getSize()).append(" (").append(piece.getPlayerName()).append(")");
-                        }
-                        this.boardGrid[r][c].setText(String.valueOf(pieceText));
-                    }
-                }
-                for (int s = 0; s < 3; s++) {
-                    if (!model.getCurrentPlayer().emptyStack(s)) {
-                        this.externalStacks[s].setText(String.valueOf(model.getCurrentPlayer().
-                                peekStack(s).getSize()));
-                    } else {
-                        this.externalStacks[s].setText("");
-                    }
-                }
             }
             if(this.boardService != null){
                 boardService.restart();
             }
+
+            // lets a computer player search for its move off the application thread
+            if(this.computerService == null && current instanceof ComputerPlayer){
+                this.computerService = new ComputerMoveService((ComputerPlayer) current, snapshot);
+                this.computerService.start();
+            }
+        }
+    }
+
+    /** Redraws the top piece of a board cell */
+    private void updateCell(GameSnapshot snapshot, int row, int col){
+        Piece piece = snapshot.getBoardPiece(row, col);
+        if (piece != null) {
+            this.boardGrid[row][col].setText(piece.getSize() + " (" + this.model.getPlayer(piece.getOwner()).getName()
+                    + ")");
+        } else {
+            this.boardGrid[row][col].setText("");
+        }
+    }
+
+    /** Redraws one of the current player's external stack buttons */
+    private void updateStack(GameSnapshot snapshot, int stack){
+        Piece top = snapshot.getStackTop(snapshot.getCurrentPlayer(), stack);
+        if (top != null) {
+            this.externalStacks[stack].setText(String.valueOf(top.getSize()));
+        } else {
+            this.externalStacks[stack].setText("");
         }
     }
 
+    /** Returns true if the active player is a human, whose clicks should be handled */
+    private boolean humanTurn(){
+        GameSnapshot snapshot = this.model.getSnapshot();
+        return snapshot.getWinner() < 0
+                && !(this.model.getPlayer(snapshot.getCurrentPlayer()) instanceof ComputerPlayer);
+    }
+
+    /** Sends a click to the model, which drops it if the turn has passed to a computer by the time it runs */
+    private void submitHumanCommand(Consumer<GobbletsModel> command){
+        submit(game -> {
+            if(game.getWinner() == null && !(game.getCurrentPlayer() instanceof ComputerPlayer)){
+                command.accept(game);
+            }
+        });
+    }
+
+    /** Submits a command to the model, showing the error in the message label if it fails */
+    private void submit(Consumer<GobbletsModel> command){
+        this.model.submit(command).whenComplete((ignored, error) -> {
+            if(error != null){
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                Platform.runLater(() -> this.message.setText("Error: " + cause.getMessage()));
+            }
+        });
+    }
+
     public void updateClock(){
-        if(this.timerService != null){
-            Player player = this.model.getCurrentPlayer();
-            this.timer.setText(player.getTime() + " | " + this.model.getOtherPlayer(player).getTime());
+        if(this.clockRefresh != null){
+            GameSnapshot snapshot = this.model.getSnapshot();
+            int current = snapshot.getCurrentPlayer();
+            this.timer.setText(snapshot.getTime(current) + " | " + snapshot.getTime(1 - current));
         }
     }
 
     /**
-     * A timer service used to manage the player timers
+     * A service that searches for a computer player's move and plays it once found
      */
-    private class TimerService extends ScheduledService<Player> {
+    private class ComputerMoveService extends Service<SearchResult>{
+        private final ComputerPlayer computer;
+
+        /** Snapshot of the game the search starts from */
+        private final GameSnapshot snapshot;
+
+        public ComputerMoveService(ComputerPlayer computer, GameSnapshot snapshot){
+            this.computer = computer;
+            this.snapshot = snapshot;
+        }
 
         @Override
-        protected Task<Player> createTask() {
+        protected Task<SearchResult> createTask() {
             return new Task<>() {
                 @Override
-                protected Player call() throws Exception {
-                    do {
-                        try{
-                            Thread.sleep(1000);
-                        } catch(InterruptedException e){
-                            if(!isCancelled()){
-                                System.out.println(e.getMessage());
-                            }
-                        }
-
-                    } while(model.isSwapping());
-                    Player player = model.getCurrentPlayer();
-                    if(!isCancelled()){
-                        player.updateTime();
-                    }
-                    return player;
+                protected SearchResult call() {
+                    return computer.chooseMove(snapshot.copyState());
                 }
+            };
+        }
 
-                @Override
-                protected void succeeded(){
-                    updateClock();
-                    if(getValue().outOfTime()){
-                        model.timedOut(getValue());
-                        while(true){
-                            if(!model.isUpdating()){
-                                break;
-                            }
-                        }
-                        model.alertObservers(new ClientData("Timeout", false));
-                    }
+        @Override
+        protected void succeeded(){
+            computerService = null;
+            int move = getValue().getMove();
+            int ply = this.snapshot.getPly();
+            if(!this.snapshot.copyState().isLegal(this.snapshot.getCurrentPlayer(), move)){
+                forfeit(move == Move.NONE ? "no move" : "illegal move " + Move.toString(move));
+                return;
+            }
+            submit(game -> {
+                // plays the move only if no move was made and no one timed out while searching
+                if(game.getWinner() == null && game.getPly() == ply){
+                    game.playMove(move);
                 }
+            });
+        }
 
-                @Override
-                protected void failed(){
-                    Throwable error = getException();
-                    System.out.println("Error in the timerService: " + error.getMessage());
+        @Override
+        protected void failed(){
+            computerService = null;
+            Throwable error = getException();
+            message.setText("Error in the computer player: " + error.getMessage());
+            forfeit("a failed search (" + error.getMessage() + ")");
+        }
+
+        /** Scores the game as a loss for the computer player, as Tournament.play does, unless it moved on */
+        private void forfeit(String reason){
+            int ply = this.snapshot.getPly();
+            forfeitReason = this.computer.getName() + " forfeits at ply " + ply + " with " + reason;
+            submit(game -> {
+                if(game.getWinner() == null && game.getPly() == ply){
+                    game.resign(this.computer);
                 }
-            };
+            });
         }
     }
 
@@ -427,13 +577,19 @@ public class GobbletsGUI extends Application implements Observer<GobbletsModel>
                         }
                     }
                     if(!isCancelled()){
-                        PieceStack boardStack = model.getBoardStack(row, column);
-                        for(Piece piece: boardStack){
-                            String temp = stackString;
-                            stackString = piece.getPlayerName() + "| Size = " + piece.getSize();
-                            if(temp != null){
-                                stackString = stackString + "\n" + temp;
+                        // lists the pieces from the top of the stack down
+                        GameSnapshot snapshot = model.getSnapshot();
+                        StringBuilder text = new StringBuilder();
+                        for(int level = snapshot.getStackHeight(row, column) - 1; level >= 0; level--){
+                            Piece piece = snapshot.getStackPiece(row, column, level);
+                            if(text.length() > 0){
+                                text.append("\n");
                             }
+                            text.append(model.getPlayer(piece.getOwner()).getName()).append("| Size = ")
+                                    .append(piece.getSize());
+                        }
+                        if(text.length() > 0){
+                            stackString = text.toString();
                         }
                     }
                     return stackString;
@@ -1,17 +1,35 @@
 package model;
 
+import common.EventBus;
 import common.Observer;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 
 /**
  * Operates the mechanics behind the Gobblets game
+ * Only one thread may change a model at a time. A model used by a single thread can be called directly; a
+ * model shared between threads takes its changes as commands through submit, which runs them one after
+ * another on the model's own writer thread, or on a serial executor given to the constructor so that many
+ * models can share a pool of threads. Either way every command publishes an immutable GameSnapshot that
+ * any thread can read through getSnapshot without locking; makeMove and unmakeMove, which a search calls
+ * millions of times, publish nothing.
  */
-public class GobbletsModel {
+public class GobbletsModel implements AutoCloseable {
 
-    /** List of Observers which the model calls to update*/
-    private final List<Observer<GobbletsModel>> observers = new LinkedList<>();
+    /** Delivers updates to the observers without making the model wait on them*/
+    private final EventBus<GameSnapshot> observers = new EventBus<>();
+
+    /** Primitive game state that the board and external stacks are views of */
+    private final BoardState state = new BoardState();
 
     /** Represents the 4x4 game board*/
     private final PieceStack[][] board = new PieceStack[4][4];
@@ -22,7 +40,16 @@ public class GobbletsModel {
     private final Player player2;
 
     /** List of players in a queue; the first player in the queue is the active player */
-    private final LinkedList<Player> playerQueue = new LinkedList<>();
+    private final ArrayDeque<Player> playerQueue = new ArrayDeque<>(2);
+
+    /** Moves played so far, in order, used to undo them */
+    private int[] history = new int[64];
+
+    /** Winner index (-1 for none) and whether the players were swapped, recorded for each move in history */
+    private int[] undoFlags = new int[64];
+
+    /** Number of moves in history */
+    private int ply = 0;
 
     /** Location of the current selected piece, stored so that it may be called upon the next selection */
     private PieceStack selectedPieceLocation;
@@ -30,9 +57,17 @@ public class GobbletsModel {
     /** Player that has won the game */
     private Player winner = null;
 
-    private Boolean swapping = false;
+    /** Latest published snapshot of the game */
+    private final AtomicReference<GameSnapshot> snapshot = new AtomicReference<>();
+
+    /** Version of the next snapshot */
+    private long version = 0;
 
-    private Boolean updating = false;
+    /** Runs submitted commands one at a time; unless given, a writer thread created by the first submit */
+    private Executor writer = null;
+
+    /** Timeout of the running clock on the shared clock thread, null when no clock runs */
+    private volatile ScheduledFuture<?> timeout = null;
 
 
     /**
@@ -41,9 +76,24 @@ public class GobbletsModel {
      * @param player2 player that will go second
      */
     public GobbletsModel(Player player1, Player player2){
+        this(player1, player2, null);
+    }
+
+    /**
+     * Creates a new Game model with an empty board whose commands run on the given executor
+     * @param player1 player that will go first
+     * @param player2 player that will go second
+     * @param writer runs submitted commands and timeouts; it must run them one at a time in order, as a
+     *               SerialExecutor does. Null for a writer thread of the model's own
+     */
+    public GobbletsModel(Player player1, Player player2, Executor writer){
+        this.writer = writer;
+        player1.initExternalStacks(this.state, 0);
+        player2.initExternalStacks(this.state, 1);
+
         for(int row = 0; row < 4; row++) {
             for (int col = 0; col < 4; col++) {
-                this.board[row][col] = new PieceStack("board");
+                this.board[row][col] = new PieceStack(this.state, row * 4 + col);
             }
         }
         this.playerQueue.add(player1);
@@ -51,15 +101,87 @@ public class GobbletsModel {
         this.playerQueue.add(player2);
         this.player2 = player2;
         this.selectedPieceLocation = null;
+        startClock(System.nanoTime());
+        publish();
     }
 
+    /** Returns the latest snapshot of the game; safe to call from any thread */
+    public GameSnapshot getSnapshot(){
+        return this.snapshot.get();
+    }
 
-    public boolean isSwapping(){
-        return this.swapping;
+    /**
+     * Queues a command that changes the model, such as a selection or a move, behind the commands submitted
+     * before it
+     * @param command command to run on the writer thread
+     * @return a future completed once the command has run, or completed with the exception the command threw
+     */
+    public CompletableFuture<Void> submit(Consumer<GobbletsModel> command){
+        return CompletableFuture.runAsync(() -> command.accept(this), writer());
     }
 
-    public boolean isUpdating(){
-        return this.updating;
+    /** Returns the executor running the commands, creating the model's own writer thread on first use */
+    private Executor writer(){
+        synchronized(this.snapshot){
+            if(this.writer == null){
+                this.writer = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "model-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return this.writer;
+        }
+    }
+
+    /** Stops the clocks and the model's own writer thread; commands already submitted still run */
+    @Override
+    public void close(){
+        cancelTimeout();
+        synchronized(this.snapshot){
+            if(this.writer instanceof ExecutorService){
+                ((ExecutorService) this.writer).shutdown();
+            }
+        }
+    }
+
+    /** Publishes a snapshot of the current game */
+    private void publish(){
+        this.snapshot.set(new GameSnapshot(this.version++, this.state, this.playerQueue.peek().getIndex(),
+                this.winner == null ? -1 : this.winner.getIndex(), this.ply,
+                this.ply == 0 ? Move.NONE : this.history[this.ply - 1], this.player1.getTimer(),
+                this.player2.getTimer()));
+    }
+
+    /** Starts the current player's clock and schedules their timeout at its deadline */
+    private void startClock(long now){
+        PlayerTimer timer = this.playerQueue.peek().getTimer();
+        if(timer == null || this.winner != null){
+            return;
+        }
+        timer.start(now);
+        scheduleTimeout(timer.deadline());
+    }
+
+    /** Stops a player's clock, crediting their increment if they moved */
+    private void stopClock(Player player, long now, boolean moved){
+        if(player.getTimer() != null){
+            player.getTimer().stop(now, moved);
+        }
+    }
+
+    private void scheduleTimeout(long deadline){
+        cancelTimeout();
+        // run directly on the writer so a failure reaches the writer's own error handling
+        this.timeout = GameClocks.at(() -> writer().execute(this::checkTimeout), deadline);
+    }
+
+    private void cancelTimeout(){
+        ScheduledFuture<?> timeout = this.timeout;
+        if(timeout != null){
+            timeout.cancel(false);
+            this.timeout = null;
+        }
     }
 
 
@@ -71,11 +193,8 @@ public class GobbletsModel {
     public void selectBoardPiece(int row, int col){
 
         // selects the board piece if it is the current player's piece, nothing otherwise
-        this.updating = true;
-
         if(this.selectedPieceLocation == null){
-            if(!this.board[row][col].empty() && this.playerQueue.peek().
-                    myPiece(this.board[row][col].peek())){
+            if(this.state.topOwner(row * 4 + col) == this.playerQueue.peek().getIndex()){
                 this.selectedPieceLocation = this.board[row][col];
                 alertObservers(new ClientData("Selected board piece", false));
             }
@@ -85,23 +204,12 @@ public class GobbletsModel {
         }
 
         // moves the piece from the stack to the board if the move is valid, nothing otherwise
-        else if (this.selectedPieceLocation.getLocationTag().equals("player")) {
-            Piece piece = this.selectedPieceLocation.peek();
-
+        else if (this.selectedPieceLocation.getLocation() == PieceStack.Location.PLAYER) {
             // Place if tile is empty or if if opponent has a sequence of three pieces where one of those three can be
             // gobbled by the stack piece
-            if(this.board[row][col].empty() || (piece.getPlayerName().equals(this.board[row][col].peek().
-                    getPlayerName()) && piece.lessThan(board[row][col].peek()) && this.canGobbleFromStack
-                    (row, col))){
-                this.board[row][col].push(this.selectedPieceLocation.pop());
-                this.selectedPieceLocation = null;
-
-                // ends the round if there is a winner
-                checkWinners();
-                if(this.winner == null){
-                    swapPlayers();
-                }
-                alertObservers(new ClientData("Played stack piece", true));
+            if(this.state.canPlaceFromStack(this.playerQueue.peek().getIndex(),
+                    this.selectedPieceLocation.getIndex(), row * 4 + col)){
+                playAndAlert("Played stack piece", Move.stack(this.selectedPieceLocation.getIndex(), row * 4 + col));
             }
             else{
                 alertObservers(new ClientData("Invalid move", false));
@@ -109,18 +217,11 @@ public class GobbletsModel {
         }
         // moves the piece on the board if the move is valid, nothing otherwise
         else {
-            if(this.board[row][col].empty() || this.selectedPieceLocation.peek().
-                    lessThan(this.board[row][col].peek())){
-                this.board[row][col].push(this.selectedPieceLocation.pop());
-                this.selectedPieceLocation = null;
-                // ends the round if there is a winner
-                checkWinners();
-                if(this.winner == null){
-                    swapPlayers();
-                }
-                alertObservers(new ClientData("Played board piece", true));
+            if(this.state.canMoveOnBoard(this.playerQueue.peek().getIndex(),
+                    this.selectedPieceLocation.getIndex(), row * 4 + col)){
+                playAndAlert("Played board piece", Move.board(this.selectedPieceLocation.getIndex(), row * 4 + col));
             }
-            else if(this.selectedPieceLocation.peek() == this.board[row][col].peek()){
+            else if(this.selectedPieceLocation == this.board[row][col]){
                 this.selectedPieceLocation = null;
                 alertObservers(new ClientData("Deselected board piece", false));
             }
@@ -136,8 +237,6 @@ public class GobbletsModel {
      */
     public void selectStackPiece(int stack){
         // selects the piece from the stack, nothing if the stack is empty
-        this.updating = true;
-
         if(this.selectedPieceLocation == null){
             if(!this.getCurrentPlayer().emptyStack(stack)){
                 this.selectedPieceLocation = playerQueue.peek().getStack(stack);
@@ -164,13 +263,96 @@ public class GobbletsModel {
 
 
 
+    /**
+     * Actions taken when a complete move is submitted at once, as computer players do
+     * @param move move encoded with Move
+     */
+    public void playMove(int move){
+        if(isLegalMove(move)){
+            playAndAlert(Move.isStackMove(move) ? "Played stack piece" : "Played board piece", move);
+        }
+        else{
+            alertObservers(new ClientData("Invalid move", false));
+        }
+    }
+
+    /** Plays a legal move for the current player and sends observers the cells and stacks it changed */
+    private void playAndAlert(String message, int move){
+        Player mover = this.playerQueue.peek();
+        if(mover.hasTimer() && mover.outOfTime()){
+            // the move came in after the clock ran out but before the timeout was processed
+            checkTimeout();
+            return;
+        }
+        long now = System.nanoTime();
+        makeMove(move);
+        stopClock(mover, now, true);
+        if(this.winner == null){
+            startClock(now);
+        } else {
+            cancelTimeout();
+        }
+        publish();
+        alertObservers(ClientData.forMove(message, move, mover.getIndex(), this.winner == null));
+    }
+
+    /**
+     * Plays a legal move for the current player without alerting observers, running the clocks or publishing
+     * a snapshot, ending the round if there is a winner; the move can be taken back with unmakeMove
+     * @param move move encoded with Move, see generateMoves
+     */
+    public void makeMove(int move){
+        if(this.ply == this.history.length){
+            this.history = Arrays.copyOf(this.history, this.ply * 2);
+            this.undoFlags = Arrays.copyOf(this.undoFlags, this.ply * 2);
+        }
+        this.history[this.ply] = move;
+        int flags = this.winner == null ? 0 : this.winner.getIndex() + 1;
+
+        this.selectedPieceLocation = null;
+        this.state.apply(this.playerQueue.peek().getIndex(), move);
+
+        // ends the round if there is a winner
+        checkWinners();
+        if(this.winner == null){
+            swapPlayers();
+            flags |= 4;
+        }
+        this.undoFlags[this.ply++] = flags;
+    }
+
+    /**
+     * Takes back the last move played, restoring the board, the winner and the turn order, without publishing
+     * a snapshot
+     * @return the move taken back, or Move.NONE if no moves have been played
+     */
+    public int unmakeMove(){
+        if(this.ply == 0){
+            return Move.NONE;
+        }
+        int move = this.history[--this.ply];
+        int flags = this.undoFlags[this.ply];
+
+        this.selectedPieceLocation = null;
+        if((flags & 4) != 0){
+            swapPlayers();
+        }
+        this.state.undo(this.playerQueue.peek().getIndex(), move);
+        int winnerIndex = (flags & 3) - 1;
+        this.winner = winnerIndex < 0 ? null : (winnerIndex == 0 ? this.player1 : this.player2);
+        return move;
+    }
+
+    /** Returns the number of moves played that can be taken back */
+    public int getPly(){
+        return this.ply;
+    }
+
     /**
      * Swaps player turns
      */
     private void swapPlayers(){
-        this.swapping = true;
         this.playerQueue.add(this.playerQueue.poll());
-        this.swapping = false;
     }
 
 
@@ -180,11 +362,12 @@ public class GobbletsModel {
      * turn it currently is not
      */
     private void checkWinners(){
-        if(isWinner(this.playerQueue.get(1))){
-            this.winner = this.playerQueue.get(1);
+        Player current = this.playerQueue.peek();
+        if(isWinner(getOtherPlayer(current))){
+            this.winner = getOtherPlayer(current);
         }
-        else if(isWinner(this.playerQueue.get(0))){
-            this.winner = this.playerQueue.get(0);
+        else if(isWinner(current)){
+            this.winner = current;
         }
     }
 
@@ -195,57 +378,78 @@ public class GobbletsModel {
      * @return True if this player has a winning condition, false otherwise
      */
     private boolean isWinner(Player player){
-        for(int i = 0; i < 4; i++) {
-            if (winningRow(player, i) || winningColumn(player, i)) {
-                return true;
-            }
-        }
-        return winningDiagonal(player);
+        return this.state.isWinner(player.getIndex());
     }
 
-    /** Checks if a player has won in a given row */
-    private boolean winningRow(Player player, int row){
-        for(int col = 0; col < 4; col++){
-            if(this.board[row][col].empty() || !player.myPiece(this.board[row][col].peek())){
-                return false;
-            }
-        }
-        return true;
+    /** Returns the winner of the game, may be null */
+    public Player getWinner(){
+        return this.winner;
     }
 
-    /** Checks if a player has won in a given column */
-    private boolean winningColumn(Player player, int col){
-        for(int row = 0; row < 4; row++) {
-            if (this.board[row][col].empty() || !player.myPiece(this.board[row][col].peek())) {
-                return false;
-            }
-        }
-        return true;
+    /** Given player has timed out so the opposing player wins */
+    public void timedOut(Player player){
+        concede(player);
     }
 
-    /** Checks if a player has won diagonally*/
-    private boolean winningDiagonal(Player player){
-        for(int i = 0; i < 4; i++) {
-            if (this.board[i][i].empty() || !player.myPiece(this.board[i][i].peek())) {
-                return false;
-            }
+    /** Given player resigns so the opposing player wins, alerting observers; nothing once the game is over */
+    public void resign(Player player){
+        if(this.winner == null){
+            concede(player);
+            alertObservers(new ClientData(player.getName() + " resigned", false));
         }
-        for(int j = 0; j < 4; j++) {
-            if (this.board[j][3 - j].empty() || !player.myPiece(this.board[j][3 - j].peek())) {
-                return false;
-            }
-        }
-        return true;
     }
 
-    /** Returns the winner of the game, may be null */
-    public Player getWinner(){
-        return this.winner;
+    /** Ends the game in favour of the other player, stopping the clocks */
+    private void concede(Player player){
+        this.winner = getOtherPlayer(player);
+        long now = System.nanoTime();
+        stopClock(this.player1, now, false);
+        stopClock(this.player2, now, false);
+        cancelTimeout();
+        publish();
     }
 
-    /** Given player has timed out so the opposing player wins */
-    public void timedOut(Player player){
-        this.winner = getOtherPlayer(player);
+    /**
+     * Ends the game if the current player's clock has run out, alerting observers; otherwise waits for the
+     * clock's deadline again. Runs on the writer thread when a timeout fires.
+     */
+    public void checkTimeout(){
+        Player current = this.playerQueue.peek();
+        if(this.winner != null || !current.hasTimer()){
+            return;
+        }
+        if(current.outOfTime()){
+            timedOut(current);
+            alertObservers(new ClientData("Timeout", false));
+        } else {
+            scheduleTimeout(current.getTimer().deadline());
+        }
+    }
+
+    /**
+     * Sets the time left on both clocks and restarts the current player's clock from now, then publishes the
+     * game, as when a game is restored with makeMove; once the game is over the clocks are only stopped
+     * @param millis0 time left for the first player in milliseconds, negative to leave the clock as it is
+     * @param millis1 time left for the second player in milliseconds, negative to leave the clock as it is
+     */
+    public void setClocks(long millis0, long millis1){
+        if(this.player1.hasTimer()){
+            // makeMove leaves the clocks as they were, so the first player's may still be running
+            long now = System.nanoTime();
+            stopClock(this.player1, now, false);
+            stopClock(this.player2, now, false);
+            cancelTimeout();
+            if(this.winner == null){
+                if(millis0 >= 0){
+                    this.player1.getTimer().reset(TimeUnit.MILLISECONDS.toNanos(millis0));
+                }
+                if(millis1 >= 0){
+                    this.player2.getTimer().reset(TimeUnit.MILLISECONDS.toNanos(millis1));
+                }
+                startClock(now);
+            }
+        }
+        publish();
     }
 
     /** Returns the player whose turn it currently is */
@@ -253,6 +457,11 @@ public class GobbletsModel {
         return this.playerQueue.peek();
     }
 
+    /** Returns the player with the given index, 0 for the player that went first */
+    public Player getPlayer(int index){
+        return index == 0 ? this.player1 : this.player2;
+    }
+
     /** returns the opposite player */
     public Player getOtherPlayer(Player current){
         if(current == this.player2){
@@ -274,67 +483,60 @@ public class GobbletsModel {
     }
 
 
-    /** Pieces from the external stacks may only be played on empty tiles unless it is played on
-     * an opponent's piece in a row, column, or diagonal where the opponent has three gobblets*/
-    private boolean canGobbleFromStack(int row, int col){
-        Player player = this.playerQueue.get(1);
-        int numPieces = 0;
-
-        // Three cards in the row
-        for(int c = 0; c < 4; c++){
-            if(this.board[row][c].peek().getPlayerName().equals(player.getName())){
-                numPieces += 1;
-            }
-            if(numPieces == 3){
-                return true;
-            }
-        }
-        numPieces = 0;
-        // Three cards in the column
-        for(int r = 0; r < 4; r++){
-            if(this.board[r][col].peek().getPlayerName().equals(player.getName())){
-                numPieces += 1;
-            }
-            if(numPieces == 3){
-                return true;
-            }
+    /**
+     * Writes every legal move of the current player into a buffer, see Move for the encoding
+     * @param moves buffer of at least Move.MAX_MOVES entries
+     * @return number of moves written, 0 once the game has a winner
+     */
+    public int generateMoves(int[] moves){
+        if(this.winner != null){
+            return 0;
         }
-        numPieces = 0;
+        return this.state.generateMoves(this.playerQueue.peek().getIndex(), moves);
+    }
 
-        //  Three cards in diagonal (if in a diagonal position)
-        if(row == col || row + col == 3){
-            for(int i = 0; i < 4; i++){
-                if(this.board[i][i].peek().getPlayerName().equals(player.getName())){
-                    numPieces += 1;
-                }
-                if(numPieces == 3){
-                    return true;
-                }
-            }
-            numPieces = 0;
-            for(int j = 0; j < 4; j++){
-                if(this.board[j][3-j].peek().getPlayerName().equals(player.getName())){
-                    numPieces += 1;
-                }
-                if(numPieces == 3){
-                    return true;
-                }
-            }
-        }
-        return false;
+    /** Determines if an encoded move is legal for the current player */
+    public boolean isLegalMove(int move){
+        return this.winner == null && this.state.isLegal(this.playerQueue.peek().getIndex(), move);
     }
 
-    /** Adds an observer to the current list of observers so it can be updated*/
-    public void addObserver(Observer<GobbletsModel> observer){
-        this.observers.add(observer);
+    /** Returns the Zobrist hash of the position, including the player to move */
+    public long getHash(){
+        return this.state.hash(this.playerQueue.peek().getIndex());
     }
 
-    /** Updates each observer based on the model and the provided data*/
+    /** Returns the position hash shared by all rotations and reflections of the board */
+    public long getCanonicalHash(){
+        long hash = this.state.canonicalHash();
+        return this.playerQueue.peek().getIndex() == 0 ? hash : hash ^ Zobrist.SIDE;
+    }
+
+    /** Returns a copy of the primitive game state */
+    public BoardState copyState(){
+        return this.state.copy();
+    }
+
+    /**
+     * Adds an observer to the current list of observers so it can be updated, on a dispatcher thread; observers
+     * are handed the snapshot published with each update, never the model the writer thread is changing
+     */
+    public void addObserver(Observer<GameSnapshot> observer){
+        this.observers.subscribe(observer);
+    }
+
+    /**
+     * Adds an observer updated through the given executor
+     * @param observer observer to update
+     * @param executor runs the updates, such as Platform::runLater for a JavaFX observer
+     * @param coalesce whether pending updates are folded into one, for observers that redraw the whole model
+     */
+    public void addObserver(Observer<GameSnapshot> observer, Executor executor, boolean coalesce){
+        this.observers.subscribe(observer, executor, coalesce);
+    }
+
+    /** Queues an update for each observer with the latest snapshot and the provided data; does not wait on them*/
     public void alertObservers(ClientData data){
-        for(var observer: this.observers){
-            observer.update(this, data);
-        }
-        this.updating = false;
+        this.observers.publish(this.snapshot.get(), data);
     }
 
 }
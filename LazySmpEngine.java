@@ -0,0 +1,105 @@
+package ai;
+
+import model.BoardState;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parallel search that runs one alpha-beta search per thread over a shared transposition table (Lazy SMP)
+ * The main thread's result is returned; helper threads start at staggered depths so they fill the table with
+ * results the main thread needs next, and stop as soon as the main thread finishes.
+ */
+public class LazySmpEngine implements SearchEngine, AutoCloseable {
+
+    /** Table shared by every thread */
+    private final TranspositionTable table;
+
+    /** Deepest iteration of the main thread */
+    private final int maxDepth;
+
+    /** One engine per thread, index 0 belongs to the main thread */
+    private final AlphaBetaEngine[] engines;
+
+    /** Runs the helper searches, null when there is only one thread */
+    private final ExecutorService helpers;
+
+    /**
+     * Creates a new parallel engine
+     * @param threads number of search threads, including the calling thread
+     * @param maxNodes maximum number of nodes searched by the main thread, 0 for no limit
+     * @param timeMillis maximum time per search in milliseconds, 0 for no limit
+     * @param maxDepth deepest iteration of the main thread, at most AlphaBetaEngine.MAX_DEPTH
+     * @param table transposition table shared by the threads
+     */
+    public LazySmpEngine(int threads, long maxNodes, long timeMillis, int maxDepth, TranspositionTable table){
+        this.table = table;
+        this.maxDepth = Math.min(maxDepth, AlphaBetaEngine.MAX_DEPTH);
+        this.engines = new AlphaBetaEngine[threads];
+        this.engines[0] = new AlphaBetaEngine(maxNodes, timeMillis, table);
+        for(int i = 1; i < threads; i++){
+            this.engines[i] = new AlphaBetaEngine(0, timeMillis, table);
+        }
+        if(threads > 1){
+            this.helpers = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.helpers = null;
+        }
+    }
+
+    /**
+     * Searches with the main engine while the helpers fill the shared table, then stops the helpers
+     * @throws IllegalStateException if a helper thread failed or the search was interrupted
+     */
+    @Override
+    public SearchResult search(BoardState state, int player){
+        this.table.newSearch();
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Future<?>[] running = new Future<?>[this.engines.length];
+        SearchResult[] helperResults = new SearchResult[this.engines.length];
+        for(int i = 1; i < this.engines.length; i++){
+            int helper = i;
+            running[i] = this.helpers.submit(() -> {
+                helperResults[helper] = this.engines[helper].search(state, player, 1 + helper % 2,
+                        AlphaBetaEngine.MAX_DEPTH, stop);
+            });
+        }
+
+        SearchResult main = this.engines[0].search(state, player, 1, this.maxDepth, null);
+        stop.set(true);
+
+        long nodes = main.getNodes();
+        for(int i = 1; i < this.engines.length; i++){
+            try{
+                running[i].get();
+                nodes += helperResults[i].getNodes();
+            } catch(ExecutionException e){
+                throw new IllegalStateException("Search helper failed", e.getCause());
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the search helpers", e);
+            }
+        }
+        return new SearchResult(main.getMove(), main.getScore(), main.getDepth(), nodes, main.getNanos());
+    }
+
+    /** Returns the number of search threads */
+    public int getThreads(){
+        return this.engines.length;
+    }
+
+    /** Stops the helper threads */
+    @Override
+    public void close(){
+        if(this.helpers != null){
+            this.helpers.shutdownNow();
+        }
+    }
+}
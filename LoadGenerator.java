@@ -0,0 +1,476 @@
+package server;
+
+import model.BoardState;
+import model.Move;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for the GameServer, keeping a number of games live and measuring move round trips
+ * Each connection creates its share of the games and takes both seats in them, then plays random legal moves,
+ * timing every move from sending it until the server's MOVED frame for it comes back. A finished game is replaced
+ * by a new one so the number of live games stays constant, and games longer than MAX_GAME_PLIES are resigned.
+ * Spectator connections, if any, each watch every game of the first connection and count the boards they
+ * receive and the plies they skipped.
+ * Usage: LoadGenerator games [connections] [seconds] [think ms] [port] [spectators]
+ */
+public class LoadGenerator {
+
+    private static final int MAX_GAME_PLIES = 200;
+
+    private final Client[] clients;
+
+    private final Spectator[] spectators;
+
+    /** Delays moves by the think time */
+    private final ScheduledExecutorService thinker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "load-think");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long thinkMillis;
+
+    private volatile boolean running = true;
+
+    /**
+     * Connects to a server and starts the games
+     * @param port port of a GameServer on the loopback address
+     * @param games number of games to keep live
+     * @param connections number of connections sharing the games
+     * @param thinkMillis time each player waits before moving
+     * @param spectators number of connections watching the games of the first connection
+     */
+    public LoadGenerator(int port, int games, int connections, long thinkMillis, int spectators)
+            throws IOException {
+        this.thinkMillis = thinkMillis;
+        this.spectators = new Spectator[spectators];
+        for(int i = 0; i < spectators; i++){
+            this.spectators[i] = new Spectator(port);
+            Thread thread = new Thread(this.spectators[i], "load-spectator-" + i);
+            thread.setDaemon(true);
+            this.spectators[i].thread = thread;
+            thread.start();
+        }
+        this.clients = new Client[connections];
+        for(int i = 0; i < connections; i++){
+            this.clients[i] = new Client(port, i, games / connections + (i < games % connections ? 1 : 0));
+        }
+        for(Client client: this.clients){
+            Thread thread = new Thread(client, "load-client-" + client.number);
+            thread.setDaemon(true);
+            client.thread = thread;
+            thread.start();
+        }
+        // the readers are running before anything is sent, so the server never waits on a full socket
+        for(Client client: this.clients){
+            for(int i = 0; i < client.initialGames; i++){
+                client.sendCreate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("Usage: LoadGenerator games [connections] [seconds] [think ms] [port] [spectators]");
+            return;
+        }
+        int games = Integer.parseInt(args[0]);
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        long think = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : GameServer.DEFAULT_PORT;
+        int spectators = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        LoadGenerator generator = new LoadGenerator(port, games, connections, think, spectators);
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        generator.stop();
+        System.out.println(games + " games on " + connections + " connections, think " + think + " ms");
+        System.out.println(generator.report((System.nanoTime() - start) / 1e9));
+    }
+
+    /** Closes the connections and waits for their threads to finish */
+    public void stop() throws InterruptedException {
+        this.running = false;
+        for(Client client: this.clients){
+            client.close();
+        }
+        for(Spectator spectator: this.spectators){
+            spectator.close();
+        }
+        for(Client client: this.clients){
+            client.thread.join();
+        }
+        for(Spectator spectator: this.spectators){
+            spectator.thread.join();
+        }
+        this.thinker.shutdownNow();
+    }
+
+    /**
+     * Summarizes the run, once stopped
+     * @param seconds length of the run
+     */
+    public String report(double seconds){
+        long finished = 0;
+        long errors = 0;
+        int count = 0;
+        for(Client client: this.clients){
+            finished += client.finished;
+            errors += client.errors;
+            count += client.latencyCount;
+        }
+        long[] latencies = new long[count];
+        int offset = 0;
+        for(Client client: this.clients){
+            System.arraycopy(client.latencies, 0, latencies, offset, client.latencyCount);
+            offset += client.latencyCount;
+        }
+        Arrays.sort(latencies);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d moves (%.0f/s), %d games finished, %d errors%n", count, count / seconds,
+                finished, errors));
+        report.append("round trip us:");
+        for(double percentile: new double[]{50, 90, 99, 99.9}){
+            report.append(String.format(" p%s %d", percentile == 99.9 ? "99.9" : String.valueOf((int) percentile),
+                    percentile(latencies, percentile) / 1000));
+        }
+        report.append(" max ").append(count == 0 ? 0 : latencies[count - 1] / 1000);
+        if(this.spectators.length > 0){
+            long boards = 0;
+            long skipped = 0;
+            for(Spectator spectator: this.spectators){
+                boards += spectator.boards;
+                skipped += spectator.skipped;
+            }
+            report.append(String.format("%n%d spectators: %d boards (%.0f/s), %d plies skipped",
+                    this.spectators.length, boards, boards / seconds, skipped));
+        }
+        return report.toString();
+    }
+
+    /** Returns a percentile of sorted values, 0 if there are none */
+    private static long percentile(long[] sorted, double percentile){
+        if(sorted.length == 0){
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * A game played by the load generator, the client's own copy of its state
+     */
+    private static final class Game {
+
+        private final BoardState state = new BoardState();
+
+        private int current = 0;
+
+        private int ply = 0;
+
+        /** Move sent and not yet confirmed, Move.NONE if none */
+        private int pending = Move.NONE;
+
+        /** System.nanoTime when the pending move was sent, set by the think timer */
+        private volatile long sentAt;
+    }
+
+    /**
+     * One connection to the server, playing its games from its reader thread
+     */
+    private final class Client implements Runnable {
+
+        private final int number;
+
+        private final SocketChannel channel;
+
+        /** Replies received and not yet complete; used only by the reader thread */
+        private final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+
+        /** Request being sent by the reader thread or the think timer; guarded by this client */
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Protocol.MAX_FRAME);
+
+        /** Games by id; touched only by the reader thread */
+        private final Map<Integer, Game> games = new HashMap<>();
+
+        private final SplittableRandom random;
+
+        private final int[] moves = new int[Move.MAX_MOVES];
+
+        /** Round trips in nanoseconds, read once the thread has finished */
+        private long[] latencies = new long[1024];
+
+        private int latencyCount = 0;
+
+        private long finished = 0;
+
+        private long errors = 0;
+
+        private Thread thread;
+
+        /** Games created once the reader thread runs */
+        private final int initialGames;
+
+        Client(int port, int number, int games) throws IOException {
+            this.number = number;
+            this.random = new SplittableRandom(number);
+            this.channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            this.channel.socket().setTcpNoDelay(true);
+            this.initialGames = games;
+        }
+
+        synchronized void sendCreate(){
+            this.out.clear();
+            Protocol.putCreate(this.out, 0, 0, 0);
+            write();
+        }
+
+        synchronized void sendGame(byte opcode, int id){
+            this.out.clear();
+            Protocol.putGame(this.out, opcode, id);
+            write();
+        }
+
+        synchronized void sendMove(int id, int move){
+            this.out.clear();
+            Protocol.putMove(this.out, id, move);
+            write();
+        }
+
+        private void write(){
+            this.out.flip();
+            try{
+                while(this.out.hasRemaining()){
+                    this.channel.write(this.out);
+                }
+            } catch(IOException e){
+                close();
+            }
+        }
+
+        void close(){
+            try{
+                this.channel.close();
+            } catch(IOException e){
+                // already closed
+            }
+        }
+
+        @Override
+        public void run(){
+            try{
+                while(this.channel.read(this.in) >= 0){
+                    this.in.flip();
+                    while(this.in.hasRemaining()){
+                        byte opcode = this.in.get(this.in.position());
+                        int length = Protocol.replyLength(opcode);
+                        if(length < 0){
+                            throw new IOException("Unknown reply " + opcode);
+                        }
+                        if(this.in.remaining() < length){
+                            break;
+                        }
+                        handle(this.in);
+                    }
+                    this.in.compact();
+                }
+            } catch(IOException e){
+                if(running){
+                    System.out.println("Connection " + this.number + " failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private void handle(ByteBuffer reply){
+            byte opcode = reply.get();
+            int id = reply.getInt();
+            switch(opcode){
+                case Protocol.CREATED:
+                    if(this.number == 0){
+                        for(Spectator spectator: spectators){
+                            spectator.watch(id);
+                        }
+                    }
+                    this.games.put(id, new Game());
+                    sendGame(Protocol.JOIN, id);
+                    break;
+                case Protocol.START:
+                    play(id, this.games.get(id));
+                    break;
+                case Protocol.MOVED:
+                    moved(id, this.games.get(id), reply.getShort() & 0xFFFF, reply.getShort());
+                    break;
+                case Protocol.STATE:
+                    reply.getShort();
+                    reply.get();
+                    int winner = reply.get();
+                    reply.get();
+                    if(winner >= 0 && this.games.remove(id) != null){
+                        this.finished++;
+                        if(running){
+                            sendCreate();
+                        }
+                    }
+                    break;
+                case Protocol.ERROR:
+                    reply.get();
+                    this.errors++;
+                    break;
+                case Protocol.JOINED:
+                    reply.get();
+                    break;
+                case Protocol.CLOCK:
+                    reply.getLong();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /** Confirms the pending move once the server has played it, then plays on unless the game is over */
+        private void moved(int id, Game game, int ply, int move){
+            if(game == null || move != game.pending){
+                return;
+            }
+            record(System.nanoTime() - game.sentAt);
+            game.state.apply(game.current, move);
+            game.pending = Move.NONE;
+            game.ply = ply;
+            game.current = 1 - game.current;
+            if(game.state.isWinner(0) || game.state.isWinner(1)){
+                // the server follows with the state of the finished game
+                return;
+            }
+            if(game.ply >= MAX_GAME_PLIES){
+                sendGame(Protocol.RESIGN, id);
+            } else {
+                play(id, game);
+            }
+        }
+
+        /** Sends a random legal move for the player whose turn it is, after the think time */
+        private void play(int id, Game game){
+            if(!running){
+                return;
+            }
+            int count = game.state.generateMoves(game.current, this.moves);
+            if(count == 0){
+                sendGame(Protocol.RESIGN, id);
+                return;
+            }
+            int move = this.moves[this.random.nextInt(count)];
+            game.pending = move;
+            if(thinkMillis == 0){
+                game.sentAt = System.nanoTime();
+                sendMove(id, move);
+            } else {
+                thinker.schedule(() -> {
+                    game.sentAt = System.nanoTime();
+                    sendMove(id, move);
+                }, thinkMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void record(long nanos){
+            if(this.latencyCount == this.latencies.length){
+                this.latencies = Arrays.copyOf(this.latencies, this.latencyCount * 2);
+            }
+            this.latencies[this.latencyCount++] = nanos;
+        }
+    }
+
+    /**
+     * A connection watching games, counting the boards it receives
+     */
+    private final class Spectator implements Runnable {
+
+        private final SocketChannel channel;
+
+        private final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+
+        /** Request being sent by a client's reader thread; guarded by this spectator */
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Protocol.MAX_FRAME);
+
+        /** Ply of the last board of each game; touched only by the reader thread */
+        private final Map<Integer, Integer> plies = new HashMap<>();
+
+        private long boards = 0;
+
+        /** Plies between consecutive boards of a game that no board was received for */
+        private long skipped = 0;
+
+        private Thread thread;
+
+        Spectator(int port) throws IOException {
+            this.channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+
+        synchronized void watch(int id){
+            this.out.clear();
+            Protocol.putGame(this.out, Protocol.WATCH, id);
+            this.out.flip();
+            try{
+                while(this.out.hasRemaining()){
+                    this.channel.write(this.out);
+                }
+            } catch(IOException e){
+                close();
+            }
+        }
+
+        void close(){
+            try{
+                this.channel.close();
+            } catch(IOException e){
+                // already closed
+            }
+        }
+
+        @Override
+        public void run(){
+            try{
+                while(this.channel.read(this.in) >= 0){
+                    this.in.flip();
+                    while(this.in.hasRemaining()){
+                        int length = Protocol.replyLength(this.in.get(this.in.position()));
+                        if(length < 0){
+                            throw new IOException("Unknown reply " + this.in.get(this.in.position()));
+                        }
+                        if(this.in.remaining() < length){
+                            break;
+                        }
+                        int start = this.in.position();
+                        if(this.in.get() == Protocol.BOARD){
+                            int id = this.in.getInt();
+                            int ply = this.in.getShort() & 0xFFFF;
+                            Integer last = this.plies.put(id, ply);
+                            if(last != null && ply > last + 1){
+                                this.skipped += ply - last - 1;
+                            }
+                            this.boards++;
+                        }
+                        this.in.position(start + length);
+                    }
+                    this.in.compact();
+                }
+            } catch(IOException e){
+                if(running){
+                    System.out.println("Spectator failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
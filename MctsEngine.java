@@ -0,0 +1,351 @@
+package ai;
+
+import model.BoardState;
+import model.Move;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monte Carlo tree search (UCT) with tree parallelism
+ * Every thread walks the same tree. A node's visit is counted on the way down, before its playout result is
+ * known, so other threads see it as a loss (virtual loss) and spread out over other branches until the
+ * result is added on the way back up. Playouts run on a private BoardState and never touch Piece objects.
+ */
+public class MctsEngine implements SearchEngine, AutoCloseable {
+
+    /** How moves are picked during playouts */
+    public enum PlayoutPolicy {
+        /** Uniformly random legal moves */
+        RANDOM,
+        /** Wins immediately when possible and otherwise prefers gobbling and blocking moves */
+        GREEDY
+    }
+
+    /** Playouts longer than this many plies are scored as draws */
+    private static final int MAX_PLAYOUT_PLIES = 200;
+
+    /** Deepest path a thread can walk down the tree */
+    private static final int MAX_TREE_DEPTH = 512;
+
+    private final int threads;
+
+    private final double exploration;
+
+    private final long timeMillis;
+
+    private final long maxPlayouts;
+
+    private final PlayoutPolicy policy;
+
+    /** Runs the extra search threads, null when there is only one thread */
+    private final ExecutorService workers;
+
+    /** Playouts per second per thread of the most recent search */
+    private volatile long lastPlayoutRate = 0;
+
+    /**
+     * Creates a new engine
+     * @param threads number of search threads, including the calling thread
+     * @param exploration UCT exploration constant, about 1.4 for rewards between 0 and 1
+     * @param timeMillis maximum time per search in milliseconds, 0 for no limit
+     * @param maxPlayouts maximum number of playouts per search, 0 for no limit
+     * @param policy playout policy
+     * @throws IllegalArgumentException if threads is below 1 or neither limit is positive, since a search
+     * without any limit would never return
+     */
+    public MctsEngine(int threads, double exploration, long timeMillis, long maxPlayouts, PlayoutPolicy policy){
+        if(threads < 1){
+            throw new IllegalArgumentException("An MCTS engine needs at least one thread, not " + threads);
+        }
+        if(timeMillis <= 0 && maxPlayouts <= 0){
+            throw new IllegalArgumentException("An MCTS engine needs a positive time or playout limit");
+        }
+        this.threads = threads;
+        this.exploration = exploration;
+        this.timeMillis = timeMillis;
+        this.maxPlayouts = maxPlayouts;
+        this.policy = policy;
+        if(threads > 1){
+            this.workers = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "mcts-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Searches on every thread until the time or playout limit is reached
+     * @throws IllegalStateException if a worker thread failed or the search was interrupted
+     */
+    @Override
+    public SearchResult search(BoardState state, int player){
+        long start = System.nanoTime();
+        Node root = new Node(Move.NONE, 1 - player, -1);
+        AtomicLong playouts = new AtomicLong();
+        long deadline = start + this.timeMillis * 1_000_000L;
+
+        Future<?>[] running = new Future<?>[this.threads];
+        for(int i = 1; i < this.threads; i++){
+            long seed = start + i;
+            running[i] = this.workers.submit(() -> new Worker(state, seed).run(root, player, playouts, deadline));
+        }
+        new Worker(state, start).run(root, player, playouts, deadline);
+        for(int i = 1; i < this.threads; i++){
+            try{
+                running[i].get();
+            } catch(ExecutionException e){
+                throw new IllegalStateException("MCTS worker failed", e.getCause());
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the MCTS workers", e);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        Node best = null;
+        Node[] children = root.children;
+        if(children != null){
+            for(Node child: children){
+                if(best == null || child.visits.get() > best.visits.get()){
+                    best = child;
+                }
+            }
+        }
+        long total = playouts.get();
+        this.lastPlayoutRate = nanos == 0 ? 0 : total * 1_000_000_000L / nanos / this.threads;
+        if(best == null){
+            return new SearchResult(Move.NONE, 0, 0, total, nanos);
+        }
+        // reports the expected result of the chosen move in thousandths, 1000 being a certain win
+        int score = (int) (500L * best.reward.get() / Math.max(1, best.visits.get()));
+        return new SearchResult(best.move, score, 1, total, nanos);
+    }
+
+    /** Returns the playouts per second per thread of the most recent search */
+    public long playoutsPerSecondPerThread(){
+        return this.lastPlayoutRate;
+    }
+
+    /** Stops the worker threads */
+    @Override
+    public void close(){
+        if(this.workers != null){
+            this.workers.shutdownNow();
+        }
+    }
+
+    /**
+     * A node of the shared search tree
+     */
+    private static final class Node {
+
+        /** Move that leads to this node */
+        final int move;
+
+        /** Player that made the move */
+        final int mover;
+
+        /** Winner decided by the move, -1 if the game goes on */
+        final int winner;
+
+        /** Children, one per legal move, null until expanded */
+        volatile Node[] children;
+
+        /** Visits, including playouts still in flight */
+        final AtomicInteger visits = new AtomicInteger();
+
+        /** Sum of rewards for the mover: 2 per win and 1 per draw */
+        final AtomicInteger reward = new AtomicInteger();
+
+        Node(int move, int mover, int winner){
+            this.move = move;
+            this.mover = mover;
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * Search state private to one thread
+     */
+    private final class Worker {
+
+        private final BoardState root;
+
+        private final BoardState state;
+
+        private final SplittableRandom random;
+
+        private final Node[] path = new Node[MAX_TREE_DEPTH];
+
+        private final int[] moves = new int[Move.MAX_MOVES];
+
+        Worker(BoardState root, long seed){
+            this.root = root.copy();
+            this.state = root.copy();
+            this.random = new SplittableRandom(seed);
+        }
+
+        void run(Node rootNode, int rootPlayer, AtomicLong playouts, long deadline){
+            while(true){
+                long done = playouts.incrementAndGet();
+                if((maxPlayouts > 0 && done > maxPlayouts)){
+                    playouts.decrementAndGet();
+                    return;
+                }
+                if(timeMillis > 0 && (done & 63) == 0 && System.nanoTime() >= deadline){
+                    return;
+                }
+                iterate(rootNode, rootPlayer);
+            }
+        }
+
+        /** Runs one selection, expansion, playout and backup */
+        private void iterate(Node rootNode, int rootPlayer){
+            this.state.copyFrom(this.root);
+            Node node = rootNode;
+            int player = rootPlayer;
+            int depth = 0;
+            node.visits.incrementAndGet();
+            this.path[depth++] = node;
+
+            while(node.winner < 0 && depth < MAX_TREE_DEPTH){
+                Node[] children = node.children;
+                if(children == null){
+                    if(node.visits.get() > 1 || node == rootNode){
+                        children = expand(node, player);
+                    }
+                    if(children == null){
+                        break;
+                    }
+                }
+                node = select(node, children);
+                this.state.apply(player, node.move);
+                player = 1 - player;
+                node.visits.incrementAndGet();
+                this.path[depth++] = node;
+            }
+
+            int winner = node.winner >= 0 ? node.winner : playout(player);
+            for(int i = 0; i < depth; i++){
+                Node visited = this.path[i];
+                if(winner < 0){
+                    visited.reward.incrementAndGet();
+                } else if(winner == visited.mover){
+                    visited.reward.addAndGet(2);
+                }
+                this.path[i] = null;
+            }
+        }
+
+        /** Creates the children of a node, unless another thread got there first */
+        private Node[] expand(Node node, int player){
+            synchronized(node){
+                if(node.children != null){
+                    return node.children;
+                }
+                int count = this.state.generateMoves(player, this.moves);
+                if(count == 0){
+                    return null;
+                }
+                Node[] children = new Node[count];
+                for(int i = 0; i < count; i++){
+                    int move = this.moves[i];
+                    this.state.apply(player, move);
+                    children[i] = new Node(move, player, winnerAfterMove(player));
+                    this.state.undo(player, move);
+                }
+                node.children = children;
+                return children;
+            }
+        }
+
+        /** Picks the child with the best UCT value; in-flight visits count as losses */
+        private Node select(Node parent, Node[] children){
+            double logVisits = Math.log(Math.max(1, parent.visits.get()));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for(Node child: children){
+                int visits = child.visits.get();
+                double value;
+                if(visits == 0){
+                    value = Double.MAX_VALUE - this.random.nextDouble();
+                } else {
+                    value = child.reward.get() / (2.0 * visits) + exploration * Math.sqrt(logVisits / visits);
+                }
+                if(value > bestValue){
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays the game out from the current state
+         * @param player player to move
+         * @return index of the winner, -1 for a draw
+         */
+        private int playout(int player){
+            for(int ply = 0; ply < MAX_PLAYOUT_PLIES; ply++){
+                int count = this.state.generateMoves(player, this.moves);
+                if(count == 0){
+                    return -1;
+                }
+                int move = policy == PlayoutPolicy.GREEDY ? greedyMove(player, count)
+                        : this.moves[this.random.nextInt(count)];
+                this.state.apply(player, move);
+                int winner = winnerAfterMove(player);
+                if(winner >= 0){
+                    return winner;
+                }
+                player = 1 - player;
+            }
+            return -1;
+        }
+
+        /** Picks a winning move if there is one, otherwise a random gobbling or blocking move when one exists */
+        private int greedyMove(int player, int count){
+            int theirs = this.state.visible(1 - player);
+            int threats = 0;
+            for(int lines = this.state.threatLines(1 - player); lines != 0; lines &= lines - 1){
+                threats |= BoardState.LINES[Integer.numberOfTrailingZeros(lines)];
+            }
+            int preferred = 0;
+            for(int i = 0; i < count; i++){
+                int move = this.moves[i];
+                this.state.apply(player, move);
+                int winner = winnerAfterMove(player);
+                this.state.undo(player, move);
+                if(winner == player){
+                    return move;
+                }
+                int to = 1 << Move.to(move);
+                if(winner < 0 && ((theirs | threats) & to) != 0){
+                    this.moves[i] = this.moves[preferred];
+                    this.moves[preferred++] = move;
+                }
+            }
+            return this.moves[this.random.nextInt(preferred > 0 ? preferred : count)];
+        }
+
+        /** Returns the winner after a player's move, the opponent's win taking priority, or -1 */
+        private int winnerAfterMove(int player){
+            if(this.state.isWinner(1 - player)){
+                return 1 - player;
+            }
+            if(this.state.isWinner(player)){
+                return player;
+            }
+            return -1;
+        }
+    }
+}
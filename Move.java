@@ -0,0 +1,91 @@
+package model;
+
+/**
+ * Integer encoding of a Gobblets move
+ * Bits 0-4 hold the source: a board cell (0-15) or an external stack (16 + stack number).
+ * Bits 5-8 hold the destination board cell.
+ */
+public final class Move {
+
+    /** Upper bound on the number of legal moves in any position: 3 * 16 placements plus 16 * 15 board moves */
+    public static final int MAX_MOVES = BoardState.STACKS * BoardState.CELLS + BoardState.CELLS * (BoardState.CELLS - 1);
+
+    /** Value that never encodes a move */
+    public static final int NONE = -1;
+
+    /** Source values from this one up refer to external stacks */
+    private static final int STACK_BASE = BoardState.CELLS;
+
+    private Move(){
+    }
+
+    /** Encodes a move of the top piece of one board cell to another */
+    public static int board(int from, int to){
+        return from | (to << 5);
+    }
+
+    /** Encodes a placement from an external stack onto a board cell */
+    public static int stack(int stack, int to){
+        return (STACK_BASE + stack) | (to << 5);
+    }
+
+    /** Returns true if the value encodes a move at all, legal or not; false for NONE */
+    public static boolean isValid(int move){
+        return move >= 0 && move < 1 << 9 && (move & 0x1F) < STACK_BASE + BoardState.STACKS;
+    }
+
+    /** Returns true if the move takes its piece from an external stack */
+    public static boolean isStackMove(int move){
+        return (move & 0x1F) >= STACK_BASE;
+    }
+
+    /** Returns the source cell of a board move */
+    public static int from(int move){
+        return move & 0x1F;
+    }
+
+    /** Returns the external stack number of a stack move */
+    public static int stackNum(int move){
+        return (move & 0x1F) - STACK_BASE;
+    }
+
+    /** Returns the destination cell */
+    public static int to(int move){
+        return (move >>> 5) & 0xF;
+    }
+
+    /** Returns a readable form of the move such as "s1-c3" or "a1-b2" (columns a-d, rows 1-4) */
+    public static String toString(int move){
+        String source = isStackMove(move) ? "s" + (stackNum(move) + 1) : cellName(from(move));
+        return source + "-" + cellName(to(move));
+    }
+
+    /**
+     * Reads a move written by toString
+     * @param text move such as "s1-c3" or "a1-b2"
+     * @return the encoded move
+     * @throws IllegalArgumentException if the text is not a move
+     */
+    public static int parse(String text){
+        String[] parts = text.trim().toLowerCase().split("-");
+        if(parts.length != 2){
+            throw new IllegalArgumentException("Not a move: " + text);
+        }
+        int to = parseCell(parts[1]);
+        if(parts[0].matches("s[1-3]")){
+            return stack(parts[0].charAt(1) - '1', to);
+        }
+        return board(parseCell(parts[0]), to);
+    }
+
+    private static int parseCell(String name){
+        if(!name.matches("[a-d][1-4]")){
+            throw new IllegalArgumentException("Not a cell: " + name);
+        }
+        return (name.charAt(1) - '1') * 4 + name.charAt(0) - 'a';
+    }
+
+    private static String cellName(int cell){
+        return (char) ('a' + cell % 4) + String.valueOf(cell / 4 + 1);
+    }
+}
@@ -0,0 +1,122 @@
+package ai;
+
+import model.BoardState;
+import model.Symmetry;
+import model.Zobrist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only opening book, memory-mapped from a file written by OpeningBookBuilder
+ * The file is a header followed by fixed-size records sorted by key: the canonical position hash with the
+ * side to move mixed in, the move in the canonical orientation of the board, its weight (number of games)
+ * and its score in thousandths for the player making it. Lookups binary search the mapped records.
+ */
+public class OpeningBook {
+
+    static final long MAGIC = 0x474F42424F4F4BL;
+
+    static final int HEADER_BYTES = 16;
+
+    static final int RECORD_BYTES = 16;
+
+    private final MappedByteBuffer records;
+
+    private final int count;
+
+    private OpeningBook(MappedByteBuffer records, int count){
+        this.records = records;
+        this.count = count;
+    }
+
+    /**
+     * Maps a book file
+     * @param file file written by OpeningBookBuilder
+     * @return the mapped book
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if(header.getLong(0) != MAGIC){
+                throw new IOException(file + " is not a Gobblets opening book");
+            }
+            int count = header.getInt(8);
+            if(channel.size() < HEADER_BYTES + (long) count * RECORD_BYTES){
+                throw new IOException(file + " is truncated");
+            }
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    (long) count * RECORD_BYTES), count);
+        }
+    }
+
+    /** Returns the key under which a position is stored */
+    static long key(BoardState state, int player){
+        long hash = state.canonicalHash();
+        return player == 0 ? hash : hash ^ Zobrist.SIDE;
+    }
+
+    /**
+     * Finds the book move of a position, the one with the highest weight
+     * @param state position
+     * @param player player to move
+     * @return a SearchResult with the move and its score, or null if the position is not in the book
+     */
+    public SearchResult lookup(BoardState state, int player){
+        long start = System.nanoTime();
+        long key = key(state, player);
+        int low = 0;
+        int high = this.count;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(Long.compare(keyAt(middle), key) < 0){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        int best = -1;
+        for(int i = low; i < this.count && keyAt(i) == key; i++){
+            if(best < 0 || weightAt(i) > weightAt(best)){
+                best = i;
+            }
+        }
+        if(best < 0){
+            return null;
+        }
+        int symmetry = state.canonicalSymmetry();
+        int move = Symmetry.mapMove(Symmetry.inverse(symmetry), moveAt(best));
+        if(!state.isLegal(player, move)){
+            return null;
+        }
+        return new SearchResult(move, scoreAt(best), 0, 0, System.nanoTime() - start);
+    }
+
+    /** Returns the number of records */
+    public int size(){
+        return this.count;
+    }
+
+    long keyAt(int i){
+        return this.records.getLong(i * RECORD_BYTES);
+    }
+
+    int moveAt(int i){
+        return this.records.getShort(i * RECORD_BYTES + 8) & 0xFFFF;
+    }
+
+    int weightAt(int i){
+        return this.records.getShort(i * RECORD_BYTES + 10) & 0xFFFF;
+    }
+
+    int scoreAt(int i){
+        return this.records.getInt(i * RECORD_BYTES + 12);
+    }
+
+}
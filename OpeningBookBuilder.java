@@ -0,0 +1,152 @@
+package ai;
+
+import model.BoardState;
+import model.Move;
+import model.Symmetry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Grows an opening book from game results and writes it in the format OpeningBook maps
+ * Every position of the first plies of each game is folded to its canonical orientation, so games that only
+ * differ by a rotation or reflection of the board count towards the same records.
+ * Usage: OpeningBookBuilder output [games] [plies] [think ms]; an existing output file is loaded and grown.
+ */
+public class OpeningBookBuilder {
+
+    /** Games longer than this many plies are scored as draws */
+    private static final int MAX_GAME_PLIES = 200;
+
+    /** Number of plies of each game that are recorded */
+    private final int maxPlies;
+
+    /** Statistics by key and canonical move: games played and points, 2 per win and 1 per draw */
+    private final Map<Long, Map<Integer, long[]>> stats = new HashMap<>();
+
+    public OpeningBookBuilder(int maxPlies){
+        this.maxPlies = maxPlies;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("Usage: OpeningBookBuilder output [games] [plies] [think ms]");
+            return;
+        }
+        Path file = Path.of(args[0]);
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 100;
+
+        OpeningBookBuilder builder = new OpeningBookBuilder(plies);
+        if(Files.exists(file)){
+            builder.load(OpeningBook.open(file));
+        }
+        Random random = new Random();
+        SearchEngine engine = new AlphaBetaEngine(0, thinkMillis);
+        int[] moves = new int[MAX_GAME_PLIES];
+        int[] legal = new int[Move.MAX_MOVES];
+        for(int game = 0; game < games; game++){
+            BoardState state = new BoardState();
+            int player = 0;
+            int winner = -1;
+            int length = 0;
+            while(length < MAX_GAME_PLIES){
+                // explores the opening with random moves now and then so the book branches out
+                int move;
+                if(length < plies && random.nextInt(4) == 0){
+                    move = legal[random.nextInt(state.generateMoves(player, legal))];
+                } else {
+                    move = engine.search(state, player).getMove();
+                }
+                moves[length++] = move;
+                state.apply(player, move);
+                if(state.isWinner(1 - player)){
+                    winner = 1 - player;
+                    break;
+                }
+                if(state.isWinner(player)){
+                    winner = player;
+                    break;
+                }
+                player = 1 - player;
+            }
+            builder.addGame(moves, length, winner);
+            System.out.println("game " + (game + 1) + ": " + length + " plies, winner " + winner);
+        }
+        builder.write(file);
+    }
+
+    /** Adds the records of an existing book */
+    public void load(OpeningBook book){
+        for(int i = 0; i < book.size(); i++){
+            long[] entry = entry(book.keyAt(i), book.moveAt(i));
+            entry[0] += book.weightAt(i);
+            entry[1] += Math.round(book.scoreAt(i) * 2.0 * book.weightAt(i) / 1000);
+        }
+    }
+
+    /**
+     * Records the opening of a game
+     * @param moves moves of the game from the starting position, player 0 moving first
+     * @param length number of moves
+     * @param winner index of the winner, -1 for a draw
+     */
+    public void addGame(int[] moves, int length, int winner){
+        BoardState state = new BoardState();
+        int player = 0;
+        for(int ply = 0; ply < length && ply < this.maxPlies; ply++){
+            int move = moves[ply];
+            long[] entry = entry(OpeningBook.key(state, player),
+                    Symmetry.mapMove(state.canonicalSymmetry(), move));
+            entry[0]++;
+            entry[1] += winner < 0 ? 1 : (winner == player ? 2 : 0);
+            state.apply(player, move);
+            player = 1 - player;
+        }
+    }
+
+    private long[] entry(long key, int move){
+        return this.stats.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(move, m -> new long[2]);
+    }
+
+    /** Writes the book sorted by key */
+    public void write(Path file) throws IOException {
+        List<Long> keys = new ArrayList<>(this.stats.keySet());
+        keys.sort(Long::compare);
+        int count = 0;
+        for(long key: keys){
+            count += this.stats.get(key).size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + count * OpeningBook.RECORD_BYTES);
+        buffer.putLong(OpeningBook.MAGIC);
+        buffer.putInt(count);
+        buffer.putInt(0);
+        for(long key: keys){
+            for(Map.Entry<Integer, long[]> record: this.stats.get(key).entrySet()){
+                long games = record.getValue()[0];
+                buffer.putLong(key);
+                buffer.putShort((short) (int) record.getKey());
+                buffer.putShort((short) Math.min(0xFFFF, games));
+                buffer.putInt((int) (record.getValue()[1] * 1000 / (2 * games)));
+            }
+        }
+        buffer.flip();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the move paths of a fixed length from a position (perft), as a correctness oracle for the move rules
+ * and a raw-speed measure of the model
+ * A move that ends the game is a leaf and is not followed further. Moves come from generateMoves, or with
+ * --rules from trying every encoding against isLegal, which runs canPlaceFromStack and canMoveOnBoard: both
+ * must give the same counts.
+ * Usage: Perft depth [--divide] [--rules] [--threads n] [moves...], the moves (such as s1-c3 a1-b2) leading
+ * from the starting position to the position counted.
+ */
+public class Perft {
+
+    /** Whether moves are found by trying every encoding against isLegal instead of generateMoves */
+    private final boolean rules;
+
+    /** Move buffers of each depth */
+    private final int[][] moves;
+
+    /**
+     * Creates a new counter
+     * @param maxDepth deepest count this counter is used for
+     * @param rules whether moves are found through isLegal instead of generateMoves
+     * @throws IllegalArgumentException if maxDepth is negative
+     */
+    public Perft(int maxDepth, boolean rules){
+        if(maxDepth < 0){
+            throw new IllegalArgumentException("Depth must not be negative, not " + maxDepth);
+        }
+        this.rules = rules;
+        this.moves = new int[maxDepth + 1][Move.MAX_MOVES];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("Usage: Perft depth [--divide] [--rules] [--threads n] [moves...]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        boolean divide = false;
+        boolean rules = false;
+        int threads = 1;
+        BoardState state = new BoardState();
+        int player = 0;
+        for(int i = 1; i < args.length; i++){
+            switch(args[i]){
+                case "--divide":
+                    divide = true;
+                    break;
+                case "--rules":
+                    rules = true;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    int move = Move.parse(args[i]);
+                    if(!state.isLegal(player, move)){
+                        throw new IllegalArgumentException("Illegal move " + args[i]);
+                    }
+                    state.apply(player, move);
+                    player = 1 - player;
+            }
+        }
+
+        long start = System.nanoTime();
+        long[] counts = divide(state, player, depth, threads, rules);
+        long nanos = System.nanoTime() - start;
+
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = new Perft(depth, rules).legalMoves(state, player, moves);
+        long total = 0;
+        for(int i = 0; i < count; i++){
+            if(divide){
+                System.out.println(Move.toString(moves[i]) + ": " + counts[i]);
+            }
+            total += counts[i];
+        }
+        System.out.printf("perft(%d) = %d in %.3f s, %d nodes/s%n", depth, total, nanos / 1e9,
+                total * 1_000_000_000L / Math.max(1, nanos));
+    }
+
+    /**
+     * Counts the paths below each root move, splitting the root moves across threads
+     * @param state position to count from, left unchanged
+     * @param player player to move
+     * @param depth length of the paths, at least 1
+     * @param threads number of threads
+     * @param rules whether moves are found through isLegal instead of generateMoves
+     * @return the count of each root move, in generation order
+     * @throws IllegalArgumentException if depth is below 1
+     */
+    public static long[] divide(BoardState state, int player, int depth, int threads, boolean rules)
+            throws Exception {
+        if(depth < 1){
+            throw new IllegalArgumentException("Depth of a divide must be at least 1, not " + depth);
+        }
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = new Perft(depth, rules).legalMoves(state, player, moves);
+        long[] counts = new long[count];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try{
+            List<Future<Long>> running = new ArrayList<>(count);
+            for(int i = 0; i < count; i++){
+                int move = moves[i];
+                running.add(pool.submit(() -> {
+                    BoardState child = state.copy();
+                    child.apply(player, move);
+                    if(child.isWinner(0) || child.isWinner(1)){
+                        return 1L;
+                    }
+                    return new Perft(depth, rules).count(child, 1 - player, depth - 1);
+                }));
+            }
+            for(int i = 0; i < count; i++){
+                counts[i] = running.get(i).get();
+            }
+        } finally{
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the move paths of a given length
+     * @param state position to count from, restored before returning
+     * @param player player to move
+     * @param depth length of the paths
+     * @return number of paths, paths cut short by the end of the game included
+     * @throws IllegalArgumentException if depth is negative or deeper than this counter was created for
+     */
+    public long count(BoardState state, int player, int depth){
+        if(depth < 0 || depth >= this.moves.length){
+            throw new IllegalArgumentException("Depth must be between 0 and " + (this.moves.length - 1) + ", not "
+                    + depth);
+        }
+        if(depth == 0){
+            return 1;
+        }
+        int[] moves = this.moves[depth];
+        int count = legalMoves(state, player, moves);
+        if(depth == 1){
+            return count;
+        }
+        long total = 0;
+        for(int i = 0; i < count; i++){
+            state.apply(player, moves[i]);
+            if(state.isWinner(0) || state.isWinner(1)){
+                total++;
+            } else {
+                total += count(state, 1 - player, depth - 1);
+            }
+            state.undo(player, moves[i]);
+        }
+        return total;
+    }
+
+    /** Writes the legal moves of a player and returns their number */
+    private int legalMoves(BoardState state, int player, int[] moves){
+        if(!this.rules){
+            return state.generateMoves(player, moves);
+        }
+        int count = 0;
+        for(int stack = 0; stack < BoardState.STACKS; stack++){
+            for(int to = 0; to < BoardState.CELLS; to++){
+                if(state.isLegal(player, Move.stack(stack, to))){
+                    moves[count++] = Move.stack(stack, to);
+                }
+            }
+        }
+        for(int from = 0; from < BoardState.CELLS; from++){
+            for(int to = 0; to < BoardState.CELLS; to++){
+                if(from != to && state.isLegal(player, Move.board(from, to))){
+                    moves[count++] = Move.board(from, to);
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -2,28 +2,45 @@ package model;
 
 /**
  * A piece in the Gobblets game
+ * There are only 8 distinct pieces, one per owner and size, and every game shares the same instances, so two
+ * pieces are equal exactly when they are the same object.
  */
-public class Piece {
+public final class Piece {
 
-    /** Name associated with the Player that owns this piece*/
-    private final String playerName;
+    /** The shared pieces, indexed by owner and size */
+    private static final Piece[][] POOL = new Piece[2][BoardState.SIZES + 1];
+
+    static {
+        for(int owner = 0; owner < 2; owner++){
+            for(int size = 1; size <= BoardState.SIZES; size++){
+                POOL[owner][size] = new Piece(owner, size);
+            }
+        }
+    }
+
+    /** Index of the player that owns this piece */
+    private final int owner;
 
     /** Integer representing the piece size **/
     private final int size;
 
+    private Piece(int owner, int size) {
+        this.owner = owner;
+        this.size = size;
+    }
+
     /**
-     * Creates a new Piece
-     * @param playerName name of the owner
-     * @param size piece size
+     * Returns the shared piece of an owner and size
+     * @param owner index of the owning player, 0 or 1
+     * @param size piece size, 1-4
      */
-    public Piece(String playerName, int size) {
-        this.playerName = playerName;
-        this.size = size;
+    public static Piece of(int owner, int size){
+        return POOL[owner][size];
     }
 
-    /** returns the player name */
-    public String getPlayerName(){
-        return this.playerName;
+    /** returns the index of the owning player */
+    public int getOwner(){
+        return this.owner;
     }
 
     /** returns the size of the piece*/
@@ -1,17 +1,167 @@
 package model;
 
-import java.util.Stack;
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
-public class PieceStack extends Stack<Piece> {
-    private final String locationTag;
+/**
+ * A view of one stack of pieces in the game state, either a board cell or one of a player's external stacks
+ * A stack holds at most four pieces, one per size, so it is read straight from the packed masks and counts of
+ * the game state; get reads any level without allocating. Iteration runs from the bottom of the stack to the
+ * top
+ */
+public class PieceStack implements Iterable<Piece> {
 
-    public PieceStack(String locationTag){
-        this.locationTag = locationTag;
+    /** Where a stack sits */
+    public enum Location {
+        /** A board cell */
+        BOARD,
+        /** One of a player's external stacks */
+        PLAYER
     }
 
-    public String getLocationTag(){
-        return this.locationTag;
+    private final Location location;
+
+    /** Game state this stack reads and writes */
+    private final BoardState state;
+
+    /** Board cell, or the stack number of an external stack */
+    private final int index;
+
+    /** Owner of an external stack, -1 for a board cell */
+    private final int owner;
+
+    /**
+     * Creates a view of a board cell
+     * @param state game state
+     * @param cell board cell (row * 4 + col)
+     */
+    PieceStack(BoardState state, int cell){
+        this.location = Location.BOARD;
+        this.state = state;
+        this.index = cell;
+        this.owner = -1;
+    }
+
+    /**
+     * Creates a view of a player's external stack
+     * @param state game state
+     * @param owner player owning the stack
+     * @param stack stack number
+     */
+    PieceStack(BoardState state, int owner, int stack){
+        this.location = Location.PLAYER;
+        this.state = state;
+        this.index = stack;
+        this.owner = owner;
+    }
+
+    public Location getLocation(){
+        return this.location;
+    }
+
+    /** Returns the board cell or external stack number this view covers */
+    int getIndex(){
+        return this.index;
+    }
+
+    public boolean empty(){
+        return size() == 0;
+    }
+
+    public int size(){
+        if(this.owner < 0){
+            return this.state.height(this.index);
+        }
+        return this.state.reserveCount(this.owner, this.index);
+    }
+
+    /** Returns the top piece without removing it */
+    public Piece peek(){
+        if(this.owner < 0){
+            int size = this.state.topSize(this.index);
+            if(size == 0){
+                throw new EmptyStackException();
+            }
+            return Piece.of(this.state.ownerAt(this.index, size), size);
+        }
+        int size = this.state.reserveSize(this.owner, this.index);
+        if(size == 0){
+            throw new EmptyStackException();
+        }
+        return Piece.of(this.owner, size);
+    }
+
+    /**
+     * Returns the piece at a level of the stack without removing it
+     * @param level 0 for the bottom piece up to size() - 1 for the top piece
+     * @throws IndexOutOfBoundsException if the stack has no such level
+     */
+    public Piece get(int level){
+        if(level < 0 || level >= size()){
+            throw new IndexOutOfBoundsException("Level " + level + " of a stack of " + size());
+        }
+        if(this.owner >= 0){
+            return Piece.of(this.owner, BoardState.SIZES - level);
+        }
+        // the bottom holds the largest size number
+        int sizes = this.state.sizesAt(this.index);
+        for(int size = BoardState.SIZES; size > 0; size--){
+            if((sizes & (1 << (size - 1))) != 0 && level-- == 0){
+                return Piece.of(this.state.ownerAt(this.index, size), size);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /** Removes and returns the top piece */
+    public Piece pop(){
+        Piece piece = peek();
+        if(this.owner < 0){
+            this.state.lift(this.index);
+        } else {
+            this.state.takeReserve(this.owner, this.index);
+        }
+        return piece;
+    }
+
+    /** Places a piece on top of the stack */
+    public Piece push(Piece piece){
+        if(this.owner < 0){
+            this.state.place(piece.getOwner(), piece.getSize(), this.index);
+        } else {
+            this.state.returnReserve(this.owner, this.index);
+        }
+        return piece;
+    }
+
+    @Override
+    public Iterator<Piece> iterator(){
+        return new Iterator<>() {
+            /** Next size to examine, the bottom of a stack holds its largest size number */
+            private int size = BoardState.SIZES;
+
+            @Override
+            public boolean hasNext(){
+                if(owner >= 0){
+                    return this.size > BoardState.STACK_HEIGHT - state.reserveCount(owner, index);
+                }
+                while(this.size > 0 && state.ownerAt(index, this.size) < 0){
+                    this.size--;
+                }
+                return this.size > 0;
+            }
+
+            @Override
+            public Piece next(){
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                int pieceOwner = owner >= 0 ? owner : state.ownerAt(index, this.size);
+                return Piece.of(pieceOwner, this.size--);
+            }
+        };
     }
 
 }
@@ -1,7 +1,5 @@
 package model;
 
-import java.util.Arrays;
-
 /**
  * Represents a player in the Gobblets game
  * Stores their external piece stacks
@@ -12,7 +10,10 @@ public class Player {
     /** Player name (unique from other players) */
     private String name;
 
-    /** Stores the initial stack of pieces */
+    /** Index of this player in the game state, assigned when the player joins a game */
+    private int index = -1;
+
+    /** Views of the player's external stacks in the game state */
     private PieceStack[] externalStacks;
 
     /** A player's personal timer, may be null if there is an infinite time limit **/
@@ -21,45 +22,70 @@ public class Player {
     /**
      * Creates a new player and initializes the external stacks
      * @param name Player username
-     * @param initTime initial time on the player timer, may be no timer
+     * @param initTime initial time on the player timer such as "5:00", "5:00 + 3s" with a Fischer increment
+     *                 or "5:00 delay 5s" with a delay per move; may be no timer
      */
     public Player(String name, String initTime){
         this.name= name;
-        this.externalStacks = initExternalStacks();
 
         if(!initTime.equals("No time limit")){
-            String[] t = initTime.split(":");
-            this.timer = new PlayerTimer(Integer.parseInt(t[0]));
+            String[] parts = initTime.trim().split("\\s+");
+            String[] t = parts[0].split(":");
+            long initialMillis = (Long.parseLong(t[0]) * 60 + (t.length > 1 ? Long.parseLong(t[1]) : 0)) * 1000;
+            long incrementMillis = 0;
+            long delayMillis = 0;
+            for(int i = 1; i + 1 < parts.length; i += 2){
+                long millis = Long.parseLong(parts[i + 1].replace("s", "")) * 1000;
+                if(parts[i].equals("+")){
+                    incrementMillis = millis;
+                } else if(parts[i].equals("delay")){
+                    delayMillis = millis;
+                }
+            }
+            this.timer = new PlayerTimer(initialMillis, incrementMillis, delayMillis);
         }
     }
 
+    /**
+     * Creates a new player with a clock
+     * @param name Player username
+     * @param timer the player's own clock, null for no time limit
+     */
+    public Player(String name, PlayerTimer timer){
+        this.name = name;
+        this.timer = timer;
+    }
+
 
     /**
-     * Method used to initialize the external stacks
-     * @return an array of 3 external stacks
+     * Binds this player to a game state and initializes the views of the external stacks
+     * @param state game state holding the stack counts
+     * @param index index of this player in the game state
      */
-    private PieceStack[] initExternalStacks(){
-        PieceStack[] stacks = new PieceStack[3];
-        for(int s = 0; s < 3; s++){
-            stacks[s] = new PieceStack("player");
-            for(int p = 4; p > 0; p--){
-                stacks[s].push(new Piece(this.name, p));
-            }
+    void initExternalStacks(BoardState state, int index){
+        this.index = index;
+        this.externalStacks = new PieceStack[BoardState.STACKS];
+        for(int s = 0; s < BoardState.STACKS; s++){
+            this.externalStacks[s] = new PieceStack(state, index, s);
         }
-        return stacks;
     }
 
     public String getName(){
         return this.name;
     }
 
+    /** Returns the index of this player in the game state */
+    public int getIndex(){
+        return this.index;
+    }
+
     /**
      * Determines if the given piece is owned by this player
      * @param piece provided piece
      * @return true if this is the player's piece, false otherwise
      */
     public boolean myPiece(Piece piece){
-        return piece.getPlayerName().equals(this.name);
+        return piece.getOwner() == this.index;
     }
 
     /**
@@ -86,9 +112,14 @@ public class Player {
         return externalStacks[stackNum];
     }
 
-    /** Decreases the players timer by one second */
-    public void updateTime(){
-        this.timer.updateTime();
+    /** Returns true if this player plays against a clock */
+    public boolean hasTimer(){
+        return this.timer != null;
+    }
+
+    /** Returns the player's clock, null without a timer */
+    PlayerTimer getTimer(){
+        return this.timer;
     }
 
     /** Gets the string value of the player's time */
@@ -1,49 +1,107 @@
 package model;
 
-import javax.swing.*;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * A player's clock, read from System.nanoTime so it never drifts with scheduling delays
+ * The clock only stores the time left when it was last started and the moment it was started; the time
+ * remaining is computed whenever it is read. A Fischer increment is added each time the player completes a
+ * move, and with a delay the clock only starts running down once the delay of each turn has passed.
+ */
 public class PlayerTimer {
 
+    /** Time left when the clock was last stopped, in nanoseconds */
+    private long remainingNanos;
 
-    /** Remaining time in milliseconds */
-    private int remainingTime;
+    /** Added to the clock after each completed move */
+    private final long incrementNanos;
 
-    /** seconds on the clock*/
-    private int seconds = 0;
+    /** Time at the start of each turn that is not taken off the clock */
+    private final long delayNanos;
 
-    /** minutes on the clock*/
-    private int minutes;
+    /** System.nanoTime when the clock was started, meaningful only while running */
+    private long startedAt;
+
+    private boolean running = false;
 
     /**
      * Creates a new Timer
      * @param minutes initial minutes on the timer
      */
     public PlayerTimer(int minutes){
-        this.minutes = minutes;
-        this.remainingTime = minutes * 60000;
-
-
+        this(minutes * 60_000L, 0, 0);
     }
 
     /**
-     * Updates the timer to represent a second passing
-     * @return 0 if the clock has run out of time, 1 otherwise
+     * Creates a new Timer
+     * @param initialMillis initial time on the clock
+     * @param incrementMillis Fischer increment added after each move, 0 for none
+     * @param delayMillis delay at the start of each turn before the clock runs down, 0 for none
      */
-    public void updateTime(){
-        if(!outOfTime()) {
-            this.remainingTime -= 1000;
-            this.minutes = this.remainingTime / 60000;
-            this.seconds = (this.remainingTime / 1000) % 60;
+    public PlayerTimer(long initialMillis, long incrementMillis, long delayMillis){
+        this.remainingNanos = TimeUnit.MILLISECONDS.toNanos(initialMillis);
+        this.incrementNanos = TimeUnit.MILLISECONDS.toNanos(incrementMillis);
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /** Starts the clock at the beginning of the player's turn */
+    public synchronized void start(long now){
+        if(!this.running){
+            this.startedAt = now;
+            this.running = true;
         }
     }
 
+    /** Stops the clock at the end of the player's turn, adding the increment if the player moved in time */
+    public synchronized void stop(long now, boolean moved){
+        if(this.running){
+            this.remainingNanos = remainingNanos(now);
+            this.running = false;
+            if(moved && this.remainingNanos > 0){
+                this.remainingNanos += this.incrementNanos;
+            }
+        }
+    }
 
-    public String getTime(){
-        return String.format("%02d", this.minutes) + ":" + String.format("%02d", this.seconds);
+    /** Returns the time left in nanoseconds at the given System.nanoTime, never below 0 */
+    public synchronized long remainingNanos(long now){
+        if(!this.running){
+            return this.remainingNanos;
+        }
+        long used = Math.max(0, now - this.startedAt - this.delayNanos);
+        return Math.max(0, this.remainingNanos - used);
+    }
 
+    /** Stops the clock and sets the time left, as when a game is restored */
+    synchronized void reset(long remainingNanos){
+        this.remainingNanos = remainingNanos;
+        this.running = false;
+    }
+
+    /** Returns the System.nanoTime at which a running clock reaches zero */
+    public synchronized long deadline(){
+        return this.startedAt + this.delayNanos + this.remainingNanos;
+    }
+
+    /** Returns a copy of the clock, for reading, that keeps running or not as this clock was */
+    public synchronized PlayerTimer copy(){
+        PlayerTimer copy = new PlayerTimer(0, TimeUnit.NANOSECONDS.toMillis(this.incrementNanos),
+                TimeUnit.NANOSECONDS.toMillis(this.delayNanos));
+        copy.remainingNanos = this.remainingNanos;
+        copy.startedAt = this.startedAt;
+        copy.running = this.running;
+        return copy;
+    }
+
+    /** Returns the time left as minutes and seconds, rounding partial seconds up */
+    public String getTime(){
+        long millis = (TimeUnit.NANOSECONDS.toMillis(remainingNanos(System.nanoTime())) + 999) / 1000 * 1000;
+        long minutes = millis / 60_000;
+        long seconds = (millis / 1000) % 60;
+        return String.format("%02d", minutes) + ":" + String.format("%02d", seconds);
     }
 
     public boolean outOfTime(){
-        return this.remainingTime == 0;
+        return remainingNanos(System.nanoTime()) == 0;
     }
 }
@@ -0,0 +1,352 @@
+package ai;
+
+import model.BoardState;
+import model.Move;
+
+import java.util.Arrays;
+
+/**
+ * Depth-first proof-number (df-pn) solver that proves or disproves a forced win within a node budget
+ * Proof and disproof numbers are always counted for the attacker. A position repeated on the current path is
+ * treated as not won, so a proven win never depends on a cycle and is always sound; a disproof may be
+ * pessimistic for the attacker when the only wins run through repetitions.
+ * A proven position also records the plies to the win against the best defence, and the principal variation
+ * follows the quickest win for the attacker and the longest defence. The table keeps two entries per bucket
+ * and never gives up a proven entry for an unproven one, but if two proven positions collide the line may
+ * end before the win.
+ * Usage: ProofNumberSolver nodes [moves...], the moves (such as s1-c3 a1-b2) leading from the starting
+ * position to the position solved for the player to move.
+ */
+public class ProofNumberSolver {
+
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+    /** Deepest path followed; positions below it are treated as not won */
+    private static final int MAX_PATH = 256;
+
+    /** Hashes of the table entries, 0 for an empty entry */
+    private final long[] keys;
+
+    private final int[] proofs;
+
+    private final int[] disproofs;
+
+    /** Plies to the win against the best defence, for proven entries */
+    private final int[] distances;
+
+    private final int mask;
+
+    /** Move lists of each path depth */
+    private final int[][] moves = new int[MAX_PATH][Move.MAX_MOVES];
+
+    /** Position hashes along the current path, for repetition checks */
+    private final long[] path = new long[MAX_PATH];
+
+    private BoardState state;
+
+    private int attacker;
+
+    private long nodes;
+
+    private long maxNodes;
+
+    /**
+     * Creates a new solver
+     * @param tableBits the table holds 2^tableBits positions
+     */
+    public ProofNumberSolver(int tableBits){
+        int size = 1 << tableBits;
+        this.keys = new long[size];
+        this.proofs = new int[size];
+        this.disproofs = new int[size];
+        this.distances = new int[size];
+        this.mask = size - 1;
+    }
+
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: ProofNumberSolver nodes [moves...]");
+            return;
+        }
+        long nodes = Long.parseLong(args[0]);
+        BoardState state = new BoardState();
+        int player = 0;
+        for(int i = 1; i < args.length; i++){
+            int move = Move.parse(args[i]);
+            if(!state.isLegal(player, move)){
+                throw new IllegalArgumentException("Illegal move " + args[i]);
+            }
+            state.apply(player, move);
+            player = 1 - player;
+        }
+        SolverResult result = new ProofNumberSolver(20).solve(state, player, player, nodes);
+        System.out.printf("%s in %.3f s%n", result, result.getNanos() / 1e9);
+    }
+
+    /**
+     * Tries to prove that a player can force a win
+     * @param state position to solve, left unchanged
+     * @param toMove player to move
+     * @param attacker player whose forced win is sought
+     * @param maxNodes node budget
+     * @return the outcome and, for a win, the winning line
+     */
+    public SolverResult solve(BoardState state, int toMove, int attacker, long maxNodes){
+        long start = System.nanoTime();
+        Arrays.fill(this.keys, 0);
+        this.state = state.copy();
+        this.attacker = attacker;
+        this.nodes = 0;
+        this.maxNodes = maxNodes;
+
+        mid(toMove, 0, INFINITY, INFINITY);
+        long hash = this.state.hash(toMove);
+        int proof = proof(hash);
+        int disproof = disproof(hash);
+
+        SolverResult.Outcome outcome = proof == 0 ? SolverResult.Outcome.WIN
+                : disproof == 0 ? SolverResult.Outcome.NO_WIN : SolverResult.Outcome.UNKNOWN;
+        int[] line = outcome == SolverResult.Outcome.WIN ? principalVariation(toMove) : new int[0];
+        return new SolverResult(outcome, attacker, toMove, line, this.nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Expands the current position until its proof or disproof number reaches a threshold
+     * @param player player to move
+     * @param depth length of the current path
+     * @param proofThreshold proof number threshold
+     * @param disproofThreshold disproof number threshold
+     */
+    private void mid(int player, int depth, int proofThreshold, int disproofThreshold){
+        long hash = this.state.hash(player);
+        if(depth >= MAX_PATH - 1){
+            store(hash, INFINITY, 0, 0);
+            return;
+        }
+        this.path[depth] = hash;
+        boolean orNode = player == this.attacker;
+        int[] moves = this.moves[depth];
+        int count = this.state.generateMoves(player, moves);
+        if(count == 0){
+            store(hash, INFINITY, 0, 0);
+            return;
+        }
+
+        while(this.nodes < this.maxNodes){
+            this.nodes++;
+
+            // sums and minimums over the children, and the child with the smallest deciding number
+            int proofSum = 0;
+            int proofMin = INFINITY;
+            int disproofSum = 0;
+            int disproofMin = INFINITY;
+            int best = -1;
+            int bestValue = INFINITY + 1;
+            int secondValue = INFINITY;
+            int bestProof = 0;
+            int bestDisproof = 0;
+            for(int i = 0; i < count; i++){
+                long numbers = childNumbers(player, moves[i], depth);
+                int proof = (int) (numbers >>> 32);
+                int disproof = (int) numbers;
+                proofSum = Math.min(INFINITY, proofSum + proof);
+                disproofSum = Math.min(INFINITY, disproofSum + disproof);
+                proofMin = Math.min(proofMin, proof);
+                disproofMin = Math.min(disproofMin, disproof);
+                int value = orNode ? proof : disproof;
+                if(value < bestValue){
+                    secondValue = bestValue;
+                    bestValue = value;
+                    best = i;
+                    bestProof = proof;
+                    bestDisproof = disproof;
+                } else if(value < secondValue){
+                    secondValue = value;
+                }
+            }
+            int proof = orNode ? proofMin : proofSum;
+            int disproof = orNode ? disproofSum : disproofMin;
+            if(proof >= proofThreshold || disproof >= disproofThreshold){
+                store(hash, proof, disproof, proof == 0 ? provenDistance(player, orNode, count, depth) : 0);
+                return;
+            }
+
+            int childProofThreshold;
+            int childDisproofThreshold;
+            if(orNode){
+                childProofThreshold = Math.min(proofThreshold, secondValue + 1);
+                childDisproofThreshold = Math.min(INFINITY, disproofThreshold - disproof + bestDisproof);
+            } else {
+                childProofThreshold = Math.min(INFINITY, proofThreshold - proof + bestProof);
+                childDisproofThreshold = Math.min(disproofThreshold, secondValue + 1);
+            }
+            int move = moves[best];
+            this.state.apply(player, move);
+            mid(1 - player, depth + 1, childProofThreshold, childDisproofThreshold);
+            this.state.undo(player, move);
+        }
+    }
+
+    /**
+     * Looks up the proof and disproof numbers of the position after a move
+     * @return proof number in the high 32 bits, disproof number in the low 32 bits
+     */
+    private long childNumbers(int player, int move, int depth){
+        this.state.apply(player, move);
+        int proof;
+        int disproof;
+        int winner = winnerAfterMove(player);
+        if(winner >= 0){
+            proof = winner == this.attacker ? 0 : INFINITY;
+            disproof = winner == this.attacker ? INFINITY : 0;
+        } else {
+            long hash = this.state.hash(1 - player);
+            if(onPath(hash, depth)){
+                proof = INFINITY;
+                disproof = 0;
+            } else {
+                proof = proof(hash);
+                disproof = disproof(hash);
+            }
+        }
+        this.state.undo(player, move);
+        return ((long) proof << 32) | disproof;
+    }
+
+    /**
+     * Returns the plies to the win from a proven position: through the quickest proven move of the attacker, or
+     * the slowest reply of the defender
+     * @param count number of moves in the move list of the depth
+     */
+    private int provenDistance(int player, boolean orNode, int count, int depth){
+        int[] moves = this.moves[depth];
+        int distance = orNode ? INFINITY : 0;
+        for(int i = 0; i < count; i++){
+            if(orNode && (int) (childNumbers(player, moves[i], depth) >>> 32) != 0){
+                continue;
+            }
+            int child = childDistance(player, moves[i]);
+            distance = orNode ? Math.min(distance, child) : Math.max(distance, child);
+        }
+        return distance;
+    }
+
+    /** Returns the plies to the win through a move to a proven position, 1 if the move wins at once */
+    private int childDistance(int player, int move){
+        this.state.apply(player, move);
+        int distance = winnerAfterMove(player) == this.attacker ? 1 : 1 + distance(this.state.hash(1 - player));
+        this.state.undo(player, move);
+        return distance;
+    }
+
+    /**
+     * Follows the quickest proven moves of the attacker and the replies of the defender that hold out longest
+     * from the current state
+     */
+    private int[] principalVariation(int player){
+        int[] line = new int[MAX_PATH];
+        int length = 0;
+        int[] moves = new int[Move.MAX_MOVES];
+        while(length < MAX_PATH){
+            this.path[length] = this.state.hash(player);
+            int count = this.state.generateMoves(player, moves);
+            boolean orNode = player == this.attacker;
+            int chosen = Move.NONE;
+            int chosenDistance = 0;
+            for(int i = 0; i < count; i++){
+                long numbers = childNumbers(player, moves[i], length);
+                if((int) (numbers >>> 32) != 0){
+                    continue;
+                }
+                int distance = childDistance(player, moves[i]);
+                if(chosen == Move.NONE || (orNode ? distance < chosenDistance : distance > chosenDistance)){
+                    chosen = moves[i];
+                    chosenDistance = distance;
+                }
+            }
+            if(chosen == Move.NONE){
+                break;
+            }
+            line[length++] = chosen;
+            this.state.apply(player, chosen);
+            if(winnerAfterMove(player) == this.attacker){
+                break;
+            }
+            player = 1 - player;
+        }
+        return Arrays.copyOf(line, length);
+    }
+
+    private boolean onPath(long hash, int depth){
+        for(int i = depth - 1; i >= 0; i -= 2){
+            if(this.path[i] == hash){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the winner after a player's move, the opponent's win taking priority, or -1 */
+    private int winnerAfterMove(int player){
+        if(this.state.isWinner(1 - player)){
+            return 1 - player;
+        }
+        if(this.state.isWinner(player)){
+            return player;
+        }
+        return -1;
+    }
+
+    /** Returns the entry of a position in its bucket of two, -1 if it is not in the table */
+    private int find(long hash){
+        int index = (int) hash & this.mask;
+        if(this.keys[index] == hash){
+            return index;
+        }
+        return this.keys[index ^ 1] == hash ? index ^ 1 : -1;
+    }
+
+    private int proof(long hash){
+        int index = find(hash);
+        return index < 0 ? 1 : this.proofs[index];
+    }
+
+    private int disproof(long hash){
+        int index = find(hash);
+        return index < 0 ? 1 : this.disproofs[index];
+    }
+
+    /** Returns the plies to the win of a proven position, 0 if it is not in the table */
+    private int distance(long hash){
+        int index = find(hash);
+        return index < 0 ? 0 : this.distances[index];
+    }
+
+    /**
+     * Stores the numbers of a position, in its own entry, an empty or unproven entry of its bucket, or, when
+     * proven itself, over a proven entry; an unproven position never replaces a proven one
+     */
+    private void store(long hash, int proof, int disproof, int distance){
+        int index = find(hash);
+        if(index < 0){
+            int first = (int) hash & this.mask;
+            if(replaceable(first)){
+                index = first;
+            } else if(replaceable(first ^ 1)){
+                index = first ^ 1;
+            } else if(proof == 0){
+                index = first;
+            } else {
+                return;
+            }
+        }
+        this.keys[index] = hash;
+        this.proofs[index] = proof;
+        this.disproofs[index] = disproof;
+        this.distances[index] = distance;
+    }
+
+    private boolean replaceable(int index){
+        return this.keys[index] == 0 || this.proofs[index] != 0;
+    }
+}
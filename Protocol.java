@@ -0,0 +1,140 @@
+package server;
+
+import model.GameSnapshot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary wire format between the GameServer and its clients
+ * Every frame starts with a one byte opcode that fixes its length, so frames need no length prefix and are
+ * read in place from the receive buffer. Numbers are big-endian, game ids take four bytes and a move takes
+ * the two bytes of its Move encoding: the source cell, or 16 plus the stack number, in bits 0-4 and the
+ * destination cell in bits 5-8.
+ * Requests: CREATE seconds(2) increment(1) delay(1), JOIN id, SELECT id cell(1), STACK id stack(1),
+ * MOVE id move(2), RESIGN id, WATCH id and UNWATCH id.
+ * Replies: CREATED id, JOINED id seat(1), START id, MOVED id ply(2) move(2), STATE id ply(2) current(1)
+ * winner(1) event(1), CLOCK id millis0(4) millis1(4), ERROR id code(1), CLOSED id and, to spectators,
+ * BOARD id ply(2) current(1) winner(1) move(2) masks0(8) masks1(8) reserves(4) millis0(4) millis1(4), the
+ * whole game in the packed form of BoardState.of so a spectator can skip any number of boards.
+ */
+public final class Protocol {
+
+    public static final byte CREATE = 1;
+    public static final byte JOIN = 2;
+    public static final byte SELECT = 3;
+    public static final byte STACK = 4;
+    public static final byte MOVE = 5;
+    public static final byte RESIGN = 6;
+    public static final byte WATCH = 7;
+    public static final byte UNWATCH = 8;
+
+    public static final byte CREATED = 1;
+    public static final byte JOINED = 2;
+    public static final byte START = 3;
+    public static final byte MOVED = 4;
+    public static final byte STATE = 5;
+    public static final byte CLOCK = 6;
+    public static final byte ERROR = 7;
+    public static final byte CLOSED = 8;
+    public static final byte BOARD = 9;
+
+    /** Events of a STATE frame, what changed besides a move */
+    public static final byte EVENT_NONE = 0;
+    public static final byte EVENT_SELECTED = 1;
+    public static final byte EVENT_DESELECTED = 2;
+    public static final byte EVENT_INVALID = 3;
+    public static final byte EVENT_RESIGNED = 4;
+    public static final byte EVENT_TIMEOUT = 5;
+
+    /** Codes of an ERROR frame */
+    public static final byte ERROR_MALFORMED = 1;
+    public static final byte ERROR_NO_GAME = 2;
+    public static final byte ERROR_NOT_OPEN = 3;
+    public static final byte ERROR_NOT_RUNNING = 4;
+    public static final byte ERROR_NOT_YOUR_TURN = 5;
+    public static final byte ERROR_NOT_SEATED = 6;
+    public static final byte ERROR_BUSY = 7;
+
+    /** Length of a BOARD frame */
+    public static final int BOARD_LENGTH = 39;
+
+    /** Length of the longest frame sent to players, which BOARD frames are not */
+    public static final int MAX_FRAME = 13;
+
+    /** Lengths of the requests by opcode */
+    private static final int[] REQUEST_LENGTHS = {0, 5, 5, 6, 6, 7, 5, 5, 5};
+
+    /** Lengths of the replies by opcode */
+    private static final int[] REPLY_LENGTHS = {0, 5, 6, 5, 9, 10, 13, 6, 5, BOARD_LENGTH};
+
+    private Protocol(){
+    }
+
+    /** Returns the length of a request frame, -1 for an unknown opcode */
+    public static int requestLength(byte opcode){
+        return opcode > 0 && opcode < REQUEST_LENGTHS.length ? REQUEST_LENGTHS[opcode] : -1;
+    }
+
+    /** Returns the length of a reply frame, -1 for an unknown opcode */
+    public static int replyLength(byte opcode){
+        return opcode > 0 && opcode < REPLY_LENGTHS.length ? REPLY_LENGTHS[opcode] : -1;
+    }
+
+    /** Returns the event of a STATE frame for a message of the model */
+    public static byte event(String message){
+        switch(message){
+            case "Selected board piece":
+            case "Selected stack piece":
+                return EVENT_SELECTED;
+            case "Deselected board piece":
+            case "Deselected stack piece":
+                return EVENT_DESELECTED;
+            case "Invalid selection":
+            case "Invalid move":
+            case "Stack is empty":
+                return EVENT_INVALID;
+            case "Timeout":
+                return EVENT_TIMEOUT;
+            default:
+                return message.endsWith("resigned") ? EVENT_RESIGNED : EVENT_NONE;
+        }
+    }
+
+    /** Writes a frame of an opcode and a game id, such as CREATED, START or CLOSED */
+    public static void putGame(ByteBuffer buffer, byte opcode, int id){
+        buffer.put(opcode).putInt(id);
+    }
+
+    /** Writes a frame of an opcode, a game id and a one byte operand, such as JOINED or ERROR */
+    public static void putGame(ByteBuffer buffer, byte opcode, int id, int operand){
+        buffer.put(opcode).putInt(id).put((byte) operand);
+    }
+
+    public static void putCreate(ByteBuffer buffer, int seconds, int increment, int delay){
+        buffer.put(CREATE).putShort((short) seconds).put((byte) increment).put((byte) delay);
+    }
+
+    public static void putMove(ByteBuffer buffer, int id, int move){
+        buffer.put(MOVE).putInt(id).putShort((short) move);
+    }
+
+    public static void putMoved(ByteBuffer buffer, int id, int ply, int move){
+        buffer.put(MOVED).putInt(id).putShort((short) ply).putShort((short) move);
+    }
+
+    public static void putState(ByteBuffer buffer, int id, int ply, int current, int winner, byte event){
+        buffer.put(STATE).putInt(id).putShort((short) ply).put((byte) current).put((byte) winner).put(event);
+    }
+
+    public static void putClock(ByteBuffer buffer, int id, long millis0, long millis1){
+        buffer.put(CLOCK).putInt(id).putInt((int) millis0).putInt((int) millis1);
+    }
+
+    /** Writes the BOARD frame of a game, with clocks of -1 if the game has none */
+    public static void putBoard(ByteBuffer buffer, int id, GameSnapshot snapshot){
+        buffer.put(BOARD).putInt(id).putShort((short) snapshot.getPly()).put((byte) snapshot.getCurrentPlayer())
+                .put((byte) snapshot.getWinner()).putShort((short) snapshot.getLastMove())
+                .putLong(snapshot.getMasks(0)).putLong(snapshot.getMasks(1)).putInt(snapshot.getReserves())
+                .putInt((int) snapshot.getRemainingMillis(0)).putInt((int) snapshot.getRemainingMillis(1));
+    }
+}
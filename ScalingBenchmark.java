@@ -0,0 +1,95 @@
+package ai;
+
+import model.BoardState;
+import model.Move;
+
+import java.util.Random;
+
+/**
+ * Measures how the parallel search scales: the time LazySmpEngine needs to reach a fixed depth on a seeded
+ * set of positions, for each thread count
+ * Usage: ScalingBenchmark [depth] [positions] [table MB] [thread counts...]
+ */
+public final class ScalingBenchmark {
+
+    private ScalingBenchmark(){
+    }
+
+    public static void main(String[] args){
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        int positions = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int tableMb = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int[] threadCounts = {1, 2, 4, 8, 16};
+        if(args.length > 3){
+            threadCounts = new int[args.length - 3];
+            for(int i = 3; i < args.length; i++){
+                threadCounts[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+
+        BoardState[] corpus = new BoardState[positions];
+        int[] toMove = new int[positions];
+        Random random = new Random(7);
+        for(int i = 0; i < positions; i++){
+            corpus[i] = new BoardState();
+            toMove[i] = randomPosition(random, 4 + i % 8, corpus[i]);
+        }
+
+        // warms up the JIT so the first thread count is not measured on interpreted code
+        try(LazySmpEngine engine = new LazySmpEngine(1, 0, 0, depth - 1,
+                new TranspositionTable(tableMb, TranspositionTable.ReplacementPolicy.TWO_TIER))){
+            for(int i = 0; i < positions; i++){
+                engine.search(corpus[i], toMove[i]);
+            }
+        }
+
+        System.out.println("depth " + depth + ", " + positions + " positions, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println("threads  time-to-depth(ms)  speedup  nodes/s");
+        double baseline = 0;
+        for(int threads: threadCounts){
+            TranspositionTable table = new TranspositionTable(tableMb, TranspositionTable.ReplacementPolicy.TWO_TIER);
+            long nanos = 0;
+            long nodes = 0;
+            try(LazySmpEngine engine = new LazySmpEngine(threads, 0, 0, depth, table)){
+                for(int i = 0; i < positions; i++){
+                    table.clear();
+                    SearchResult result = engine.search(corpus[i], toMove[i]);
+                    nanos += result.getNanos();
+                    nodes += result.getNodes();
+                }
+            }
+            double millis = nanos / 1e6 / positions;
+            if(baseline == 0){
+                baseline = millis;
+            }
+            System.out.printf("%7d  %17.1f  %7.2f  %d%n", threads, millis, baseline / millis,
+                    nodes * 1_000_000_000L / Math.max(1, nanos));
+        }
+    }
+
+    /**
+     * Plays random legal moves that do not end the game
+     * @param random source of the moves
+     * @param plies number of moves to play
+     * @param state position the moves are played on
+     * @return index of the player to move afterwards
+     */
+    static int randomPosition(Random random, int plies, BoardState state){
+        int[] moves = new int[Move.MAX_MOVES];
+        int player = 0;
+        for(int ply = 0; ply < plies; ply++){
+            int count = state.generateMoves(player, moves);
+            for(int attempt = 0; attempt < 16; attempt++){
+                int move = moves[random.nextInt(count)];
+                state.apply(player, move);
+                if(!state.isWinner(0) && !state.isWinner(1)){
+                    player = 1 - player;
+                    break;
+                }
+                state.undo(player, move);
+            }
+        }
+        return player;
+    }
+}
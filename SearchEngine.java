@@ -0,0 +1,18 @@
+package ai;
+
+import model.BoardState;
+
+/**
+ * An algorithm that picks moves for a computer player
+ */
+public interface SearchEngine {
+
+    /**
+     * Searches a position for the best move
+     * @param state position to search, left unchanged
+     * @param player index of the player to move
+     * @return the chosen move and search statistics
+     */
+    SearchResult search(BoardState state, int player);
+
+}
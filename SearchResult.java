@@ -0,0 +1,64 @@
+package ai;
+
+import model.Move;
+
+/**
+ * Outcome of a search: the chosen move, its score and how much work finding it took
+ */
+public class SearchResult {
+
+    /** Chosen move encoded with Move, Move.NONE if there was nothing to play */
+    private final int move;
+
+    /** Score of the move from the point of view of the player to move */
+    private final int score;
+
+    /** Deepest completed iteration */
+    private final int depth;
+
+    /** Number of positions visited */
+    private final long nodes;
+
+    /** Time spent searching in nanoseconds */
+    private final long nanos;
+
+    public SearchResult(int move, int score, int depth, long nodes, long nanos){
+        this.move = move;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.nanos = nanos;
+    }
+
+    public int getMove(){
+        return this.move;
+    }
+
+    public int getScore(){
+        return this.score;
+    }
+
+    public int getDepth(){
+        return this.depth;
+    }
+
+    public long getNodes(){
+        return this.nodes;
+    }
+
+    public long getNanos(){
+        return this.nanos;
+    }
+
+    /** Returns the search speed in nodes per second */
+    public long nodesPerSecond(){
+        return this.nanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.nanos;
+    }
+
+    @Override
+    public String toString(){
+        String move = this.move == Move.NONE ? "none" : Move.toString(this.move);
+        return move + " (depth " + this.depth + ", score " + this.score + ", " + this.nodes + " nodes, "
+                + nodesPerSecond() + " nodes/s)";
+    }
+}
@@ -0,0 +1,68 @@
+package common;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in the order they were executed, on a shared executor
+ * Acts as the mailbox of an actor: any number of serial executors can share a small pool of threads, and
+ * the tasks of each one never run concurrently with each other, so whatever they touch needs no locking.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+
+    /** Tasks waiting to run; guarded by this executor */
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+
+    /** Runs the pending tasks, kept so that scheduling a run allocates nothing */
+    private final Runnable drainer = this::drain;
+
+    /** Whether a run of the pending tasks is queued on the executor or running; guarded by this executor */
+    private boolean scheduled = false;
+
+    /**
+     * Creates a new serial executor
+     * @param executor runs the tasks, such as a pool shared with other serial executors
+     */
+    public SerialExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task){
+        synchronized(this){
+            this.pending.add(task);
+            if(this.scheduled){
+                return;
+            }
+            this.scheduled = true;
+        }
+        this.executor.execute(this.drainer);
+    }
+
+    /**
+     * Runs pending tasks until none are left
+     * A task that fails, with an Error as much as an exception, ends the run: the tasks behind it go on in a
+     * new run and the failure is thrown on to the executor's thread and its uncaught exception handler.
+     */
+    private void drain(){
+        while(true){
+            Runnable task;
+            synchronized(this){
+                task = this.pending.poll();
+                if(task == null){
+                    this.scheduled = false;
+                    return;
+                }
+            }
+            try{
+                task.run();
+            } catch(Throwable e){
+                // still scheduled, so the new run is the only one
+                this.executor.execute(this.drainer);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ai;
+
+import model.Move;
+
+/**
+ * Outcome of a ProofNumberSolver run
+ */
+public class SolverResult {
+
+    /** What the solver established about the attacker */
+    public enum Outcome {
+        /** The attacker has a forced win */
+        WIN,
+        /** The defender can avoid losing, as far as the solver can tell without following repetitions */
+        NO_WIN,
+        /** The node budget ran out first */
+        UNKNOWN
+    }
+
+    private final Outcome outcome;
+
+    /** Player the solver tried to prove a win for */
+    private final int attacker;
+
+    /** Player to move at the start of the line */
+    private final int toMove;
+
+    /** Winning line for a WIN, empty otherwise */
+    private final int[] principalVariation;
+
+    private final long nodes;
+
+    private final long nanos;
+
+    public SolverResult(Outcome outcome, int attacker, int toMove, int[] principalVariation, long nodes, long nanos){
+        this.outcome = outcome;
+        this.attacker = attacker;
+        this.toMove = toMove;
+        this.principalVariation = principalVariation;
+        this.nodes = nodes;
+        this.nanos = nanos;
+    }
+
+    public Outcome getOutcome(){
+        return this.outcome;
+    }
+
+    public int getAttacker(){
+        return this.attacker;
+    }
+
+    /** Returns the winning line, moves encoded with Move, starting with the player to move */
+    public int[] getPrincipalVariation(){
+        return this.principalVariation.clone();
+    }
+
+    /** Returns the number of attacker moves in the winning line, 0 if no win was proven */
+    public int winsIn(){
+        int length = this.principalVariation.length;
+        return this.toMove == this.attacker ? (length + 1) / 2 : length / 2;
+    }
+
+    public long getNodes(){
+        return this.nodes;
+    }
+
+    public long getNanos(){
+        return this.nanos;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder text = new StringBuilder();
+        if(this.outcome == Outcome.WIN){
+            text.append("player ").append(this.attacker).append(" wins in ").append(winsIn()).append(":");
+            for(int move: this.principalVariation){
+                text.append(' ').append(Move.toString(move));
+            }
+        } else {
+            text.append(this.outcome);
+        }
+        return text.append(" (").append(this.nodes).append(" nodes)").toString();
+    }
+}
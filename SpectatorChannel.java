@@ -0,0 +1,160 @@
+package server;
+
+import model.GameSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The spectators of one game, fed from a single encoding of each board
+ * The game encodes its board once per change into one of a few direct frames it keeps for the whole game;
+ * every spectator writes the same bytes through a view of its own over that frame, gathered with the frames
+ * of the other games it watches. A spectator pins the frame it is writing, and a new board is encoded into a
+ * frame that is neither the latest nor pinned, so nothing is allocated per board. A spectator only remembers
+ * that a game has a board it has not sent yet and always sends the latest one, so a slow spectator skips
+ * boards instead of queueing them.
+ */
+final class SpectatorChannel {
+
+    /** Frames of the game, grown only when every one but the latest is pinned; only the game's actor uses it */
+    private final List<Frame> frames = new ArrayList<>(2);
+
+    /** Frame holding the latest board, null before the game starts */
+    private volatile Frame latest = null;
+
+    private final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A direct buffer a board is encoded into, with the number of spectators writing it
+     */
+    private static final class Frame {
+
+        /** Position of the frame among the game's frames, by which spectators keep their views */
+        final int index;
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Protocol.BOARD_LENGTH);
+
+        final AtomicInteger readers = new AtomicInteger();
+
+        Frame(int index){
+            this.index = index;
+        }
+    }
+
+    boolean isEmpty(){
+        return this.watchers.isEmpty();
+    }
+
+    /**
+     * Encodes a new board into a free frame and tells every spectator it has one to send; only the game's
+     * own actor publishes
+     */
+    void publish(int id, GameSnapshot snapshot){
+        Frame frame = freeFrame();
+        Protocol.putBoard(frame.buffer.clear(), id, snapshot);
+        this.latest = frame;
+        for(Watcher watcher: this.watchers){
+            watcher.connection.offer(watcher);
+        }
+    }
+
+    /** Returns a frame that no spectator is writing and that is not the latest, adding one if there is none */
+    private Frame freeFrame(){
+        for(Frame frame: this.frames){
+            if(frame != this.latest && frame.readers.get() == 0){
+                return frame;
+            }
+        }
+        Frame frame = new Frame(this.frames.size());
+        this.frames.add(frame);
+        return frame;
+    }
+
+    /** Adds a spectator, who is sent the latest board as soon as there is one */
+    Watcher add(GameServer.Connection connection){
+        Watcher watcher = new Watcher(this, connection);
+        this.watchers.add(watcher);
+        if(this.latest != null){
+            connection.offer(watcher);
+        }
+        return watcher;
+    }
+
+    void remove(Watcher watcher){
+        this.watchers.remove(watcher);
+    }
+
+    /** Lets the spectators go once the game is over; boards they have yet to send are still sent */
+    void close(GameSession session){
+        for(Watcher watcher: this.watchers){
+            watcher.connection.unwatching(session);
+        }
+        this.watchers.clear();
+    }
+
+    /**
+     * A spectator of one game
+     */
+    static final class Watcher {
+
+        private final SpectatorChannel channel;
+
+        final GameServer.Connection connection;
+
+        /** Whether the spectator has a board of this game to send; guarded by the connection */
+        boolean pending = false;
+
+        /** View of each frame by index, made once per frame; guarded by the connection */
+        private ByteBuffer[] views = new ByteBuffer[2];
+
+        /** Frame pinned, null when none is; guarded by the connection */
+        private Frame pinned = null;
+
+        Watcher(SpectatorChannel channel, GameServer.Connection connection){
+            this.channel = channel;
+            this.connection = connection;
+        }
+
+        /**
+         * Pins the frame of the latest board and returns this spectator's view of it, from its start; null
+         * before the game starts. The frame is not encoded into again until release.
+         */
+        ByteBuffer frame(){
+            release();
+            Frame frame;
+            while(true){
+                frame = this.channel.latest;
+                if(frame == null){
+                    return null;
+                }
+                frame.readers.incrementAndGet();
+                // the game may have moved on and be encoding into this frame already
+                if(this.channel.latest == frame){
+                    break;
+                }
+                frame.readers.decrementAndGet();
+            }
+            this.pinned = frame;
+            if(frame.index >= this.views.length){
+                this.views = Arrays.copyOf(this.views, frame.index + 1);
+            }
+            if(this.views[frame.index] == null){
+                this.views[frame.index] = frame.buffer.duplicate();
+            }
+            return this.views[frame.index].clear();
+        }
+
+        /** Unpins the frame returned by frame, once it is written or put back; nothing if none is pinned */
+        void release(){
+            if(this.pinned != null){
+                this.pinned.readers.decrementAndGet();
+                this.pinned = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package model;
+
+/**
+ * The 8 rotations and reflections of the 4x4 board
+ * Symmetry 0 is the identity; 1-3 rotate by 90, 180 and 270 degrees; 4-7 reflect left to right, top to
+ * bottom, across the main diagonal and across the anti-diagonal.
+ */
+public final class Symmetry {
+
+    public static final int COUNT = 8;
+
+    /** CELL_MAP[k][cell] is the cell that a piece in cell lands on under symmetry k */
+    static final int[][] CELL_MAP = new int[COUNT][BoardState.CELLS];
+
+    /** INVERSE[k] undoes symmetry k */
+    private static final int[] INVERSE = {0, 3, 2, 1, 4, 5, 6, 7};
+
+    static {
+        for(int row = 0; row < 4; row++){
+            for(int col = 0; col < 4; col++){
+                int[] images = {
+                        row * 4 + col, col * 4 + (3 - row), (3 - row) * 4 + (3 - col), (3 - col) * 4 + row,
+                        row * 4 + (3 - col), (3 - row) * 4 + col, col * 4 + row, (3 - col) * 4 + (3 - row)
+                };
+                for(int k = 0; k < COUNT; k++){
+                    CELL_MAP[k][row * 4 + col] = images[k];
+                }
+            }
+        }
+    }
+
+    private Symmetry(){
+    }
+
+    /** Returns the image of a cell under symmetry k */
+    public static int mapCell(int k, int cell){
+        return CELL_MAP[k][cell];
+    }
+
+    /** Returns the symmetry that undoes symmetry k */
+    public static int inverse(int k){
+        return INVERSE[k];
+    }
+
+    /** Returns the image of an encoded move under symmetry k; external stack numbers are unchanged */
+    public static int mapMove(int k, int move){
+        int to = CELL_MAP[k][Move.to(move)];
+        if(Move.isStackMove(move)){
+            return Move.stack(Move.stackNum(move), to);
+        }
+        return Move.board(CELL_MAP[k][Move.from(move)], to);
+    }
+}
@@ -0,0 +1,319 @@
+package ai;
+
+import model.BoardState;
+import model.GobbletsModel;
+import model.Move;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Headless self-play tournament between two engines
+ * Games are played in pairs from the same random opening, each engine taking the first move in one game of
+ * the pair, on a pool of worker threads that each own their engines. The model is driven without observers
+ * and engines are given node or playout budgets rather than time, so results do not depend on the load of
+ * the machine. Given a node budget, the referee runs a ProofNumberSolver before every move and ends a game
+ * as soon as either side has a proven forced win, instead of playing it out.
+ * Usage: Tournament games engineA engineB [threads] [opening plies] [adjudication nodes], an engine being
+ * random, ab:nodes[:tableMB] or mcts:playouts.
+ */
+public class Tournament {
+
+    /** Games longer than this many plies are scored as draws */
+    private static final int MAX_GAME_PLIES = 200;
+
+    /** Seconds between progress reports */
+    private static final int REPORT_SECONDS = 10;
+
+    /** Size of the adjudicating solver's table, as a power of two */
+    private static final int ADJUDICATION_TABLE_BITS = 16;
+
+    private final Supplier<SearchEngine> engineA;
+
+    private final Supplier<SearchEngine> engineB;
+
+    private final int openingPlies;
+
+    /** Node budget of each adjudication, 0 to play every game out */
+    private final long adjudicationNodes;
+
+    /** Games won, drawn and lost by engine A */
+    private final AtomicInteger wins = new AtomicInteger();
+
+    private final AtomicInteger draws = new AtomicInteger();
+
+    private final AtomicInteger losses = new AtomicInteger();
+
+    /** Total plies of finished games */
+    private final AtomicInteger plies = new AtomicInteger();
+
+    /** Games ended by the solver */
+    private final AtomicInteger adjudicated = new AtomicInteger();
+
+    /** Games lost by an engine that returned an illegal move or none */
+    private final AtomicInteger forfeits = new AtomicInteger();
+
+    /** Next game pair to hand out */
+    private final AtomicInteger nextPair = new AtomicInteger();
+
+    /**
+     * Creates a new tournament
+     * @param engineA creates an instance of the first engine for each worker thread
+     * @param engineB creates an instance of the second engine for each worker thread
+     * @param openingPlies number of random moves played before the engines take over
+     */
+    public Tournament(Supplier<SearchEngine> engineA, Supplier<SearchEngine> engineB, int openingPlies){
+        this(engineA, engineB, openingPlies, 0);
+    }
+
+    /**
+     * Creates a new tournament whose games end once the solver proves a forced win
+     * @param engineA creates an instance of the first engine for each worker thread
+     * @param engineB creates an instance of the second engine for each worker thread
+     * @param openingPlies number of random moves played before the engines take over
+     * @param adjudicationNodes node budget of the solver before each move, 0 to play every game out
+     */
+    public Tournament(Supplier<SearchEngine> engineA, Supplier<SearchEngine> engineB, int openingPlies,
+                      long adjudicationNodes){
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.openingPlies = openingPlies;
+        this.adjudicationNodes = adjudicationNodes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 3){
+            System.out.println("Usage: Tournament games engineA engineB [threads] [opening plies] "
+                    + "[adjudication nodes]");
+            System.out.println("Engines: random, ab:nodes[:tableMB], mcts:playouts");
+            return;
+        }
+        int games = Integer.parseInt(args[0]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int openingPlies = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        long adjudicationNodes = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        Tournament tournament = new Tournament(engine(args[1]), engine(args[2]), openingPlies, adjudicationNodes);
+        long start = System.nanoTime();
+        tournament.run((games + 1) / 2, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(args[1] + " vs " + args[2] + ", " + threads + " threads");
+        System.out.println(tournament.report(seconds));
+    }
+
+    /**
+     * Parses an engine description
+     * @param spec random, ab:nodes[:tableMB] or mcts:playouts
+     * @return a factory of engine instances
+     */
+    static Supplier<SearchEngine> engine(String spec){
+        String[] parts = spec.split(":");
+        switch(parts[0]){
+            case "random":
+                return () -> new RandomEngine(System.nanoTime());
+            case "ab": {
+                long nodes = Long.parseLong(parts[1]);
+                int tableMB = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                return () -> new AlphaBetaEngine(nodes, 0, tableMB == 0 ? null
+                        : new TranspositionTable(tableMB, TranspositionTable.ReplacementPolicy.TWO_TIER));
+            }
+            case "mcts": {
+                long playouts = Long.parseLong(parts[1]);
+                return () -> new MctsEngine(1, 1.4, 0, playouts, MctsEngine.PlayoutPolicy.GREEDY);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown engine " + spec);
+        }
+    }
+
+    /**
+     * Plays the tournament and waits for it to finish
+     * @param pairs number of game pairs; each pair is two games from the same opening with colours swapped
+     * @param threads number of worker threads
+     */
+    public void run(int pairs, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Future<?>[] running = new Future<?>[threads];
+        for(int i = 0; i < threads; i++){
+            running[i] = pool.submit(() -> work(pairs));
+        }
+        pool.shutdown();
+        long start = System.nanoTime();
+        while(!pool.awaitTermination(REPORT_SECONDS, TimeUnit.SECONDS)){
+            System.out.println(report((System.nanoTime() - start) / 1e9));
+        }
+        for(Future<?> future: running){
+            future.get();
+        }
+    }
+
+    /** Plays game pairs until none are left */
+    private void work(int pairs){
+        SearchEngine a = this.engineA.get();
+        SearchEngine b = this.engineB.get();
+        ProofNumberSolver solver = this.adjudicationNodes > 0 ? new ProofNumberSolver(ADJUDICATION_TABLE_BITS) : null;
+        int[] opening = new int[this.openingPlies];
+        int[] moves = new int[Move.MAX_MOVES];
+        for(int pair = this.nextPair.getAndIncrement(); pair < pairs; pair = this.nextPair.getAndIncrement()){
+            int length = randomOpening(new SplittableRandom(pair), opening, moves);
+            record(play(a, b, solver, opening, length), 0);
+            record(play(b, a, solver, opening, length), 1);
+        }
+        close(a);
+        close(b);
+    }
+
+    /**
+     * Picks random opening moves that do not end the game
+     * @return number of opening moves
+     */
+    private int randomOpening(SplittableRandom random, int[] opening, int[] moves){
+        BoardState state = new BoardState();
+        int player = 0;
+        for(int ply = 0; ply < opening.length; ply++){
+            int count = state.generateMoves(player, moves);
+            int move = moves[random.nextInt(count)];
+            state.apply(player, move);
+            if(state.isWinner(0) || state.isWinner(1)){
+                return ply;
+            }
+            opening[ply] = move;
+            player = 1 - player;
+        }
+        return opening.length;
+    }
+
+    /**
+     * Plays one game
+     * @param first engine of the first player
+     * @param second engine of the second player
+     * @param solver adjudicates the game before each move, null to play it out
+     * @return index of the winner, the opponent of an engine that returned an illegal move, -1 for a draw
+     */
+    private int play(SearchEngine first, SearchEngine second, ProofNumberSolver solver, int[] opening, int length){
+        ComputerPlayer player1 = new ComputerPlayer("Player 1", "No time limit", first);
+        ComputerPlayer player2 = new ComputerPlayer("Player 2", "No time limit", second);
+        GobbletsModel model = new GobbletsModel(player1, player2);
+        for(int ply = 0; ply < length; ply++){
+            model.makeMove(opening[ply]);
+        }
+        while(model.getWinner() == null && model.getPly() < MAX_GAME_PLIES){
+            int adjudication = solver == null ? -1 : adjudicate(solver, model);
+            if(adjudication >= 0){
+                this.adjudicated.incrementAndGet();
+                this.plies.addAndGet(model.getPly());
+                return adjudication;
+            }
+            ComputerPlayer current = (ComputerPlayer) model.getCurrentPlayer();
+            int move = current.chooseMove(model.copyState()).getMove();
+            if(!model.isLegalMove(move)){
+                // an engine that cannot produce a legal move loses the game
+                SearchEngine engine = current.getIndex() == 0 ? first : second;
+                System.out.println(engine.getClass().getSimpleName() + " as " + current.getName() + " forfeits at ply "
+                        + model.getPly() + " with " + (move == Move.NONE ? "no move" : "illegal move "
+                        + Move.toString(move)));
+                this.forfeits.incrementAndGet();
+                this.plies.addAndGet(model.getPly());
+                return 1 - current.getIndex();
+            }
+            model.makeMove(move);
+        }
+        this.plies.addAndGet(model.getPly());
+        return model.getWinner() == null ? -1 : model.getWinner().getIndex();
+    }
+
+    /**
+     * Looks for a forced win of the player to move, then of the other player
+     * @return index of the player with a proven forced win, -1 if neither is proven within the budget
+     */
+    private int adjudicate(ProofNumberSolver solver, GobbletsModel model){
+        BoardState state = model.copyState();
+        int toMove = model.getCurrentPlayer().getIndex();
+        if(solver.solve(state, toMove, toMove, this.adjudicationNodes).getOutcome() == SolverResult.Outcome.WIN){
+            return toMove;
+        }
+        if(solver.solve(state, toMove, 1 - toMove, this.adjudicationNodes).getOutcome()
+                == SolverResult.Outcome.WIN){
+            return 1 - toMove;
+        }
+        return -1;
+    }
+
+    /** Counts a game result for engine A, which played as the given player */
+    private void record(int winner, int playerA){
+        if(winner < 0){
+            this.draws.incrementAndGet();
+        } else if(winner == playerA){
+            this.wins.incrementAndGet();
+        } else {
+            this.losses.incrementAndGet();
+        }
+    }
+
+    private static void close(SearchEngine engine){
+        if(engine instanceof AutoCloseable){
+            try{
+                ((AutoCloseable) engine).close();
+            } catch(Exception e){
+                System.out.println("Error closing engine: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Summarizes the games played so far
+     * @param seconds time elapsed
+     * @return results of engine A with the Elo difference and its 95% error bar, and the game rate
+     */
+    public String report(double seconds){
+        int w = this.wins.get();
+        int d = this.draws.get();
+        int l = this.losses.get();
+        int games = w + d + l;
+        if(games == 0){
+            return "no games finished";
+        }
+        double score = (w + 0.5 * d) / games;
+        // standard error of the mean score per game, from the spread of the individual results
+        double variance = (w * Math.pow(1 - score, 2) + d * Math.pow(0.5 - score, 2) + l * Math.pow(score, 2))
+                / games;
+        double margin = 1.96 * Math.sqrt(variance / games);
+        double elo = elo(score);
+        double errorBar = (elo(score + margin) - elo(score - margin)) / 2;
+        return String.format("games %d: +%d =%d -%d, score %.1f%%, Elo %+.1f +/- %.1f, %.1f games/s, %.1f plies/game, "
+                + "%d adjudicated, %d forfeited", games, w, d, l, 100 * score, elo, errorBar, games / seconds,
+                (double) this.plies.get() / games, this.adjudicated.get(), this.forfeits.get());
+    }
+
+    /** Converts an expected score to an Elo difference, clamped away from certain results */
+    private static double elo(double score){
+        double clamped = Math.min(0.999, Math.max(0.001, score));
+        return -400 * Math.log10(1 / clamped - 1);
+    }
+
+    /**
+     * Engine that plays uniformly random legal moves, a baseline for tournaments
+     */
+    private static final class RandomEngine implements SearchEngine {
+
+        private final SplittableRandom random;
+
+        private final int[] moves = new int[Move.MAX_MOVES];
+
+        RandomEngine(long seed){
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public SearchResult search(BoardState state, int player){
+            int count = state.generateMoves(player, this.moves);
+            int move = count == 0 ? Move.NONE : this.moves[this.random.nextInt(count)];
+            return new SearchResult(move, 0, 0, 0, 0);
+        }
+    }
+}
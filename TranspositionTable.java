@@ -0,0 +1,247 @@
+package ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table stored off-heap, shared by any number of search threads without locks
+ * Each entry is two longs: the position hash XOR the data, and the data. A reader only accepts an entry
+ * whose two words XOR back to the hash it is looking for, so entries torn by concurrent writers are
+ * discarded as misses instead of being trusted.
+ * Entries are grouped in buckets of two: a depth-preferred slot and an always-replace slot.
+ */
+public class TranspositionTable {
+
+    /** How a store chooses the slot it overwrites */
+    public enum ReplacementPolicy {
+        /** Only the always-replace slot is used */
+        ALWAYS_REPLACE,
+        /** Only the depth-preferred slot is used; shallower results from the current search are dropped */
+        DEPTH_PREFERRED,
+        /** Deeper results go to the depth-preferred slot, everything else to the always-replace slot */
+        TWO_TIER
+    }
+
+    /** Bound type of an exact score */
+    public static final int EXACT = 1;
+
+    /** Bound type of a score that is at least the stored value (fail high) */
+    public static final int LOWER = 2;
+
+    /** Bound type of a score that is at most the stored value (fail low) */
+    public static final int UPPER = 3;
+
+    private static final int ENTRY_BYTES = 16;
+
+    private static final int BUCKET_BYTES = 2 * ENTRY_BYTES;
+
+    /** Largest single buffer, direct buffers are indexed by int */
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private static final int SCORE_OFFSET = 1 << 23;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    /** Off-heap storage, split into chunks of at most CHUNK_BYTES */
+    private final ByteBuffer[] chunks;
+
+    private final long bucketMask;
+
+    private final int bucketsPerChunkShift;
+
+    private final ReplacementPolicy policy;
+
+    /** Search generation, entries from older generations are replaced first */
+    private volatile int generation = 0;
+
+    private final LongAdder probes = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder collisions = new LongAdder();
+
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * Creates a new table
+     * @param megabytes table size in megabytes, rounded down to a power of two
+     * @param policy replacement policy
+     */
+    public TranspositionTable(int megabytes, ReplacementPolicy policy){
+        long bytes = Long.highestOneBit(Math.max(1, megabytes)) << 20;
+        long buckets = bytes / BUCKET_BYTES;
+        int chunkBytes = (int) Math.min(bytes, CHUNK_BYTES);
+        this.chunks = new ByteBuffer[(int) (bytes / chunkBytes)];
+        for(int i = 0; i < this.chunks.length; i++){
+            this.chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+        }
+        this.bucketMask = buckets - 1;
+        this.bucketsPerChunkShift = Integer.numberOfTrailingZeros(chunkBytes / BUCKET_BYTES);
+        this.policy = policy;
+    }
+
+    /** Starts a new search generation, making older entries the first to be replaced */
+    public void newSearch(){
+        this.generation = (this.generation + 1) & 0xFF;
+    }
+
+    /** Empties the table and resets the metrics */
+    public void clear(){
+        for(ByteBuffer chunk: this.chunks){
+            for(int i = 0; i < chunk.capacity(); i += 8){
+                LONGS.setOpaque(chunk, i, 0L);
+            }
+        }
+        this.probes.reset();
+        this.hits.reset();
+        this.collisions.reset();
+        this.stores.reset();
+    }
+
+    /**
+     * Looks up a position
+     * @param hash position hash including the side to move
+     * @return packed entry data, read with the static accessors, or 0 if the position is not stored
+     */
+    public long probe(long hash){
+        this.probes.increment();
+        long bucket = hash & this.bucketMask;
+        ByteBuffer chunk = this.chunks[(int) (bucket >>> this.bucketsPerChunkShift)];
+        int offset = (int) (bucket & ((1L << this.bucketsPerChunkShift) - 1)) * BUCKET_BYTES;
+        boolean occupied = false;
+        for(int slot = 0; slot < 2; slot++){
+            int index = offset + slot * ENTRY_BYTES;
+            long data = (long) LONGS.getOpaque(chunk, index + 8);
+            long check = (long) LONGS.getOpaque(chunk, index);
+            if(data == 0){
+                continue;
+            }
+            if((check ^ data) == hash){
+                this.hits.increment();
+                return data;
+            }
+            occupied = true;
+        }
+        if(occupied){
+            this.collisions.increment();
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result
+     * @param hash position hash including the side to move
+     * @param move best move found, Move.NONE if there is none
+     * @param score score of the position
+     * @param depth remaining depth the score was searched to
+     * @param bound EXACT, LOWER or UPPER
+     */
+    public void store(long hash, int move, int score, int depth, int bound){
+        this.stores.increment();
+        long data = pack(move, score, depth, bound, this.generation);
+        long bucket = hash & this.bucketMask;
+        ByteBuffer chunk = this.chunks[(int) (bucket >>> this.bucketsPerChunkShift)];
+        int offset = (int) (bucket & ((1L << this.bucketsPerChunkShift) - 1)) * BUCKET_BYTES;
+
+        int slot;
+        if(this.policy == ReplacementPolicy.ALWAYS_REPLACE){
+            slot = 1;
+        }
+        else{
+            long stored = (long) LONGS.getOpaque(chunk, offset + 8);
+            long storedHash = stored ^ (long) LONGS.getOpaque(chunk, offset);
+            boolean replace = stored == 0 || storedHash == hash || generation(stored) != this.generation
+                    || depth(stored) <= depth;
+            if(replace){
+                slot = 0;
+            }
+            else if(this.policy == ReplacementPolicy.TWO_TIER){
+                slot = 1;
+            }
+            else{
+                return;
+            }
+        }
+        int index = offset + slot * ENTRY_BYTES;
+        LONGS.setOpaque(chunk, index + 8, data);
+        LONGS.setOpaque(chunk, index, hash ^ data);
+    }
+
+    private static long pack(int move, int score, int depth, int bound, int generation){
+        return ((move + 1) & 0xFFFFL)
+                | ((long) ((score + SCORE_OFFSET) & 0xFFFFFF) << 16)
+                | ((long) (depth & 0xFF) << 40)
+                | ((long) bound << 48)
+                | ((long) generation << 50);
+    }
+
+    /** Returns the move of a packed entry, Move.NONE if it has none */
+    public static int move(long data){
+        return (int) (data & 0xFFFF) - 1;
+    }
+
+    /** Returns the score of a packed entry */
+    public static int score(long data){
+        return (int) ((data >>> 16) & 0xFFFFFF) - SCORE_OFFSET;
+    }
+
+    /** Returns the searched depth of a packed entry */
+    public static int depth(long data){
+        return (int) ((data >>> 40) & 0xFF);
+    }
+
+    /** Returns the bound type of a packed entry */
+    public static int bound(long data){
+        return (int) ((data >>> 48) & 3);
+    }
+
+    private static int generation(long data){
+        return (int) ((data >>> 50) & 0xFF);
+    }
+
+    /** Returns the size of the table in bytes */
+    public long sizeBytes(){
+        return (this.bucketMask + 1) * BUCKET_BYTES;
+    }
+
+    /** Returns the fraction of probes that found their position */
+    public double hitRate(){
+        long probes = this.probes.sum();
+        return probes == 0 ? 0 : (double) this.hits.sum() / probes;
+    }
+
+    /** Returns the fraction of probes that missed while the bucket held other positions */
+    public double collisionRate(){
+        long probes = this.probes.sum();
+        return probes == 0 ? 0 : (double) this.collisions.sum() / probes;
+    }
+
+    /** Returns the number of stores */
+    public long getStores(){
+        return this.stores.sum();
+    }
+
+    /** Estimates the fraction of slots in use by the current generation from the first buckets of the table */
+    public double fill(){
+        int sampleBuckets = (int) Math.min(this.bucketMask + 1, 1 << 14);
+        ByteBuffer chunk = this.chunks[0];
+        int used = 0;
+        for(int i = 0; i < sampleBuckets * 2; i++){
+            long data = (long) LONGS.getOpaque(chunk, i * ENTRY_BYTES + 8);
+            if(data != 0 && generation(data) == this.generation){
+                used++;
+            }
+        }
+        return (double) used / (sampleBuckets * 2);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d MB, hit rate %.3f, collision rate %.3f, fill %.3f, %d stores",
+                sizeBytes() >> 20, hitRate(), collisionRate(), fill(), getStores());
+    }
+}
@@ -0,0 +1,39 @@
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for 64 bit Zobrist hashing of game states
+ * Keys come from a fixed seed so hashes are stable across runs and can be stored on disk.
+ */
+public final class Zobrist {
+
+    /** Key that callers mix in when player 1 is to move; BoardState hashes do not include the side to move */
+    public static final long SIDE;
+
+    /** PIECES[player][size][cell], size 0 unused */
+    static final long[][][] PIECES = new long[2][BoardState.SIZES + 1][BoardState.CELLS];
+
+    /** RESERVES[player][stack][count] */
+    static final long[][][] RESERVES = new long[2][BoardState.STACKS][BoardState.STACK_HEIGHT + 1];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x60BB1E75L);
+        for(int player = 0; player < 2; player++){
+            for(int size = 1; size <= BoardState.SIZES; size++){
+                for(int cell = 0; cell < BoardState.CELLS; cell++){
+                    PIECES[player][size][cell] = random.nextLong();
+                }
+            }
+            for(int stack = 0; stack < BoardState.STACKS; stack++){
+                for(int count = 0; count <= BoardState.STACK_HEIGHT; count++){
+                    RESERVES[player][stack][count] = random.nextLong();
+                }
+            }
+        }
+        SIDE = random.nextLong();
+    }
+
+    private Zobrist(){
+    }
+}
@@ -0,0 +1,328 @@
+package bench;
+
+import com.sun.management.ThreadMXBean;
+import common.Observer;
+import model.BoardState;
+import model.ClientData;
+import model.GameSnapshot;
+import model.GobbletsModel;
+import model.Move;
+import model.Player;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro-benchmarks of the model hot paths, reporting time and heap allocation per operation
+ * Each benchmark runs warmup rounds, then measured rounds over a fixed seeded corpus of opening, midgame and
+ * crowded-board positions, so results can be compared between builds. Allocation is read from the thread's
+ * allocated-bytes counter, which counts every TLAB and heap allocation of the measuring thread.
+ * Observer benchmarks come in two kinds: enqueue times only alertObservers, which returns once the update is
+ * queued, and delivered waits until every observer has received it.
+ * The benchmarks live in their own source root outside the Gobblets module and run on the class path
+ * against the compiled module: javac -cp out -d bench-out bench/*.java, then
+ * java -cp out:bench-out bench.ModelBenchmark [name filter] [round ms]
+ */
+public final class ModelBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    /** Operations run between clock reads */
+    private static final int BATCH = 256;
+
+    /** Random games longer than this many plies are stopped */
+    private static final int MAX_GAME_PLIES = 200;
+
+    /** Observers alerted in the largest observer benchmark */
+    private static final int MANY_OBSERVERS = 8;
+
+    /** Reads the bytes allocated so far by the calling thread */
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Sink for benchmark results so the JIT cannot drop the work */
+    private static long sink;
+
+    /**
+     * A benchmarked operation
+     */
+    private interface Operation {
+
+        /**
+         * Runs the operation once
+         * @param i invocation number, used to cycle through a corpus
+         * @return a value depending on the work done
+         */
+        long run(int i);
+    }
+
+    /**
+     * Positions of a corpus, with the moves that lead to each one from the starting position
+     */
+    private static final class Corpus {
+
+        final String name;
+
+        final List<int[]> lines = new ArrayList<>();
+
+        final List<BoardState> states = new ArrayList<>();
+
+        /** Player to move in each position */
+        final List<Integer> toMove = new ArrayList<>();
+
+        Corpus(String name){
+            this.name = name;
+        }
+
+        int size(){
+            return this.lines.size();
+        }
+    }
+
+    private ModelBenchmark(){
+    }
+
+    public static void main(String[] args){
+        String filter = args.length > 0 ? args[0] : "";
+        long roundMillis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+
+        Corpus[] corpora = {
+                corpus("opening", 1, 2, 4, 0),
+                corpus("midgame", 2, 8, 14, 8),
+                corpus("crowded", 3, 18, 30, 14)
+        };
+
+        System.out.printf("%-36s %12s %10s %10s%n", "benchmark", "ns/op", "+/-", "B/op");
+        for(Corpus corpus: corpora){
+            BoardState[] states = corpus.states.toArray(new BoardState[0]);
+            int[] toMove = corpus.toMove.stream().mapToInt(Integer::intValue).toArray();
+            GobbletsModel[] models = new GobbletsModel[corpus.size()];
+            for(int i = 0; i < models.length; i++){
+                models[i] = model(corpus.lines.get(i));
+            }
+            int[][] boardMoves = new int[models.length][];
+            int[][] stackMoves = new int[models.length][];
+            for(int i = 0; i < models.length; i++){
+                boardMoves[i] = firstMove(models[i], false);
+                stackMoves[i] = firstMove(models[i], true);
+            }
+            int n = states.length;
+            String suffix = " " + corpus.name;
+
+            bench("isWinner" + suffix, filter, roundMillis, i -> {
+                BoardState state = states[i % n];
+                return (state.isWinner(0) ? 1 : 0) + (state.isWinner(1) ? 2 : 0);
+            });
+            bench("canGobbleFromStack" + suffix, filter, roundMillis, i -> {
+                BoardState state = states[i % n];
+                return state.canGobbleFromStack(toMove[i % n], i & (BoardState.CELLS - 1)) ? 1 : 0;
+            });
+            // makeMove runs checkWinners after every move
+            bench("makeMove+unmakeMove" + suffix, filter, roundMillis, i -> {
+                GobbletsModel model = models[i % n];
+                int move = boardMoves[i % n][0] != Move.NONE ? boardMoves[i % n][0] : stackMoves[i % n][0];
+                if(move == Move.NONE){
+                    return 0;
+                }
+                model.makeMove(move);
+                return model.unmakeMove();
+            });
+            bench("selectStackPiece+play+unmake" + suffix, filter, roundMillis, i -> {
+                GobbletsModel model = models[i % n];
+                int move = stackMoves[i % n][0];
+                if(move == Move.NONE){
+                    return 0;
+                }
+                model.selectStackPiece(Move.stackNum(move));
+                model.selectBoardPiece(Move.to(move) / 4, Move.to(move) % 4);
+                return model.unmakeMove();
+            });
+            bench("selectBoardPiece+play+unmake" + suffix, filter, roundMillis, i -> {
+                GobbletsModel model = models[i % n];
+                int move = boardMoves[i % n][0];
+                if(move == Move.NONE){
+                    return 0;
+                }
+                model.selectBoardPiece(Move.from(move) / 4, Move.from(move) % 4);
+                model.selectBoardPiece(Move.to(move) / 4, Move.to(move) % 4);
+                return model.unmakeMove();
+            });
+        }
+
+        ClientData data = new ClientData("Played board piece", true);
+        for(int observers: new int[]{0, 1, MANY_OBSERVERS}){
+            GobbletsModel model = model(new int[0]);
+            AtomicLong updates = new AtomicLong();
+            for(int i = 0; i < observers; i++){
+                model.addObserver(new CountingObserver(updates));
+            }
+            bench("alertObservers enqueue " + observers + " observers", filter, roundMillis, i -> {
+                model.alertObservers(data);
+                return observers;
+            });
+        }
+        for(int observers: new int[]{1, MANY_OBSERVERS}){
+            GobbletsModel model = model(new int[0]);
+            AtomicLong updates = new AtomicLong();
+            for(int i = 0; i < observers; i++){
+                model.addObserver(new CountingObserver(updates));
+            }
+            long[] expected = {0};
+            bench("alertObservers delivered " + observers + " observers", filter, roundMillis, i -> {
+                model.alertObservers(data);
+                expected[0] += observers;
+                // one update in flight at a time, so no queue fills up and drops one
+                while(updates.get() < expected[0]){
+                    Thread.yield();
+                }
+                return expected[0];
+            });
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        BoardState start = new BoardState();
+        BoardState playout = new BoardState();
+        int[] moves = new int[Move.MAX_MOVES];
+        bench("random playout", filter, roundMillis, i -> {
+            playout.copyFrom(start);
+            int player = 0;
+            for(int ply = 0; ply < MAX_GAME_PLIES; ply++){
+                int count = playout.generateMoves(player, moves);
+                playout.apply(player, moves[random.nextInt(count)]);
+                if(playout.isWinner(0) || playout.isWinner(1)){
+                    return ply;
+                }
+                player = 1 - player;
+            }
+            return MAX_GAME_PLIES;
+        });
+        if(sink == 42){
+            System.out.println();
+        }
+    }
+
+    /**
+     * Builds a seeded corpus by playing random moves that do not end the game
+     * @param seed seed of the random moves
+     * @param minPlies fewest moves played for a position
+     * @param maxPlies most moves played for a position
+     * @param minCells fewest occupied board cells a position must have
+     */
+    private static Corpus corpus(String name, long seed, int minPlies, int maxPlies, int minCells){
+        Corpus corpus = new Corpus(name);
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] moves = new int[Move.MAX_MOVES];
+        while(corpus.size() < 64){
+            BoardState state = new BoardState();
+            int plies = minPlies + random.nextInt(maxPlies - minPlies + 1);
+            int[] line = new int[plies];
+            int player = 0;
+            int played = 0;
+            while(played < plies){
+                int count = state.generateMoves(player, moves);
+                int move = moves[random.nextInt(count)];
+                state.apply(player, move);
+                if(state.isWinner(0) || state.isWinner(1)){
+                    state.undo(player, move);
+                    if(random.nextInt(8) == 0){
+                        break;
+                    }
+                    continue;
+                }
+                line[played++] = move;
+                player = 1 - player;
+            }
+            if(played == plies && Integer.bitCount(state.visible(0) | state.visible(1)) >= minCells){
+                corpus.lines.add(line);
+                corpus.states.add(state);
+                corpus.toMove.add(player);
+            }
+        }
+        return corpus;
+    }
+
+    /** Creates a model without observers and plays a line of moves on it */
+    private static GobbletsModel model(int[] line){
+        GobbletsModel model = new GobbletsModel(new Player("Player 1", "No time limit"),
+                new Player("Player 2", "No time limit"));
+        for(int move: line){
+            model.makeMove(move);
+        }
+        return model;
+    }
+
+    /** Returns the first legal board or stack move of the current player, or Move.NONE, in a one-entry array */
+    private static int[] firstMove(GobbletsModel model, boolean stack){
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = model.generateMoves(moves);
+        for(int i = 0; i < count; i++){
+            if(Move.isStackMove(moves[i]) == stack){
+                return new int[]{moves[i]};
+            }
+        }
+        return new int[]{Move.NONE};
+    }
+
+    /** Runs the warmup and measured rounds of a benchmark and prints its line of the report */
+    private static void bench(String name, String filter, long roundMillis, Operation operation){
+        if(!name.contains(filter)){
+            return;
+        }
+        int invocation = 0;
+        long value = 0;
+        double[] nanosPerOp = new double[MEASURED_ROUNDS];
+        double bytesPerOp = 0;
+        for(int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++){
+            long ops = 0;
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long end = start + roundMillis * 1_000_000L;
+            long now;
+            do{
+                for(int i = 0; i < BATCH; i++){
+                    value += operation.run(invocation++);
+                }
+                ops += BATCH;
+                now = System.nanoTime();
+            } while(now < end);
+            bytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+            if(round >= WARMUP_ROUNDS){
+                nanosPerOp[round - WARMUP_ROUNDS] = (double) (now - start) / ops;
+                bytesPerOp += (double) bytes / ops / MEASURED_ROUNDS;
+            }
+        }
+        sink += value;
+
+        double mean = 0;
+        for(double nanos: nanosPerOp){
+            mean += nanos / MEASURED_ROUNDS;
+        }
+        double variance = 0;
+        for(double nanos: nanosPerOp){
+            variance += (nanos - mean) * (nanos - mean) / (MEASURED_ROUNDS - 1);
+        }
+        System.out.printf("%-36s %12.1f %10.1f %10.1f%n", name, mean, Math.sqrt(variance), bytesPerOp);
+    }
+
+    /**
+     * Observer that only counts its updates
+     */
+    private static final class CountingObserver implements Observer<GameSnapshot> {
+
+        /** Updates of every observer of a benchmark, counted from the dispatcher threads */
+        private final AtomicLong updates;
+
+        CountingObserver(AtomicLong updates){
+            this.updates = updates;
+        }
+
+        @Override
+        public void update(GameSnapshot snapshot, ClientData data){
+            this.updates.incrementAndGet();
+        }
+    }
+}
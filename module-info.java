@@ -1,7 +1,15 @@
+/**
+ * Gobblets: the game model, the JavaFX GUI, the search engines and the headless game server
+ * JavaFX is only needed by the gui package, so the server and the tools start without it; the GUI is
+ * launched with --add-modules javafx.controls, such as java -p mods --add-modules javafx.controls
+ * -m Gobblets/gui.GobbletsGUI.
+ */
 module Gobblets {
-    requires transitive javafx.controls;
+    requires static transitive javafx.controls;
     requires java.desktop;
     exports common;
     exports model;
     exports gui;
-}
\ No newline at end of file
+    exports ai;
+    exports server;
+}